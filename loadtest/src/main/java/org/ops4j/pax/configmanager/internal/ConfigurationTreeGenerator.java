@@ -0,0 +1,189 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.Random;
+
+import org.ops4j.lang.NullArgumentException;
+
+/**
+ * {@code ConfigurationTreeGenerator} writes a synthetic configuration area with {@code services} and
+ * {@code factories} properties files of a given shape, and edits a fraction of them to simulate a deployment.
+ */
+final class ConfigurationTreeGenerator
+{
+
+    private static final String PID_PREFIX = "org.ops4j.pax.loadtest.";
+
+    private final File m_root;
+    private final int m_services;
+    private final int m_factories;
+    private final int m_keys;
+    private final int m_instances;
+    private final Random m_random;
+
+    /**
+     * @param root      The configuration area to write to. This argument must not be {@code null}.
+     * @param services  Number of service configuration files.
+     * @param factories Number of factory configuration files.
+     * @param keys      Number of keys per configuration, or per factory instance.
+     * @param instances Number of instances per factory configuration.
+     * @param seed      Seed of the generated values, so that runs are repeatable.
+     */
+    ConfigurationTreeGenerator( File root, int services, int factories, int keys, int instances, long seed )
+    {
+        NullArgumentException.validateNotNull( root, "root" );
+
+        m_root = root;
+        m_services = services;
+        m_factories = factories;
+        m_keys = keys;
+        m_instances = instances;
+        m_random = new Random( seed );
+    }
+
+    /**
+     * Writes all configuration files.
+     *
+     * @throws IOException Thrown if a file can not be written.
+     */
+    final void generate()
+        throws IOException
+    {
+        for( int i = 0; i < m_services; i++ )
+        {
+            writeService( i, 0 );
+        }
+        for( int i = 0; i < m_factories; i++ )
+        {
+            writeFactory( i, 0 );
+        }
+    }
+
+    /**
+     * Rewrites a random {@code fraction} of the configuration files with new values.
+     *
+     * @param fraction   The fraction of files to edit, between {@code 0} and {@code 1}.
+     * @param generation Number of the edit, written into the values so that every edit changes them.
+     *
+     * @return The number of edited files.
+     *
+     * @throws IOException Thrown if a file can not be written.
+     */
+    final int edit( double fraction, int generation )
+        throws IOException
+    {
+        int edited = 0;
+        for( int i = 0; i < m_services; i++ )
+        {
+            if( m_random.nextDouble() < fraction )
+            {
+                writeService( i, generation );
+                edited++;
+            }
+        }
+        for( int i = 0; i < m_factories; i++ )
+        {
+            if( m_random.nextDouble() < fraction )
+            {
+                writeFactory( i, generation );
+                edited++;
+            }
+        }
+        return edited;
+    }
+
+    /**
+     * @return the service pid of the {@code index}th service configuration.
+     */
+    final String getServicePid( int index )
+    {
+        return PID_PREFIX + "service" + index;
+    }
+
+    final int getServices()
+    {
+        return m_services;
+    }
+
+    final int getFiles()
+    {
+        return m_services + m_factories;
+    }
+
+    private void writeService( int index, int generation )
+        throws IOException
+    {
+        Properties prop = new Properties();
+        for( int k = 0; k < m_keys; k++ )
+        {
+            prop.setProperty( "key" + k, value( generation ) );
+        }
+        write( ConfigurationAdminFacade.DIRECTORY_NAME_SERVICES, getServicePid( index ), prop );
+    }
+
+    private void writeFactory( int index, int generation )
+        throws IOException
+    {
+        Properties prop = new Properties();
+        StringBuilder keys = new StringBuilder();
+        for( int k = 0; k < m_keys; k++ )
+        {
+            if( k > 0 )
+            {
+                keys.append( ',' );
+            }
+            keys.append( "key" ).append( k );
+            for( int i = 1; i <= m_instances; i++ )
+            {
+                prop.setProperty( "key" + k + "." + i, value( generation ) );
+            }
+        }
+        prop.setProperty( "instances", String.valueOf( m_instances ) );
+        prop.setProperty( "keys", keys.toString() );
+        write( ConfigurationAdminFacade.DIRECTORY_NAME_FACTORIES, PID_PREFIX + "factory" + index, prop );
+    }
+
+    private void write( String directoryName, String pid, Properties prop )
+        throws IOException
+    {
+        File directory = new File( m_root, directoryName );
+        if( !directory.isDirectory() && !directory.mkdirs() )
+        {
+            throw new IOException( "Can not create directory [" + directory + "]." );
+        }
+
+        OutputStream out = new FileOutputStream( new File( directory, pid + ".properties" ) );
+        try
+        {
+            prop.store( out, null );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private String value( int generation )
+    {
+        return generation + "-" + Long.toString( m_random.nextLong() & Long.MAX_VALUE, 36 );
+    }
+}
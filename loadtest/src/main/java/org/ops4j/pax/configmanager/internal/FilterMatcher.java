@@ -0,0 +1,262 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.List;
+
+import org.ops4j.lang.NullArgumentException;
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * {@code FilterMatcher} matches dictionaries against the subset of LDAP filters the loader passes to
+ * {@code ConfigurationAdmin.listConfigurations}: {@code &}, {@code |} and {@code !} composites and equality or
+ * presence ({@code =*}) comparisons of string values, with {@code \} escapes. Attribute names are case insensitive.
+ */
+final class FilterMatcher
+{
+
+    private final String m_filter;
+    private final Node m_root;
+    private int m_position;
+
+    FilterMatcher( String filter )
+        throws InvalidSyntaxException
+    {
+        NullArgumentException.validateNotNull( filter, "filter" );
+
+        m_filter = filter;
+        m_root = parseFilter();
+        skipWhitespace();
+        if( m_position != m_filter.length() )
+        {
+            throw error( "Unexpected trailing characters" );
+        }
+    }
+
+    /**
+     * @param properties The dictionary to match. This argument must not be {@code null}.
+     *
+     * @return A {@code boolean} indicator whether the {@code properties} match this filter.
+     */
+    final boolean matches( Dictionary properties )
+    {
+        return m_root.matches( properties );
+    }
+
+    private Node parseFilter()
+        throws InvalidSyntaxException
+    {
+        skipWhitespace();
+        expect( '(' );
+        skipWhitespace();
+
+        Node node;
+        char c = peek();
+        if( c == '&' || c == '|' )
+        {
+            m_position++;
+            List<Node> operands = new ArrayList<Node>();
+            skipWhitespace();
+            while( peek() == '(' )
+            {
+                operands.add( parseFilter() );
+                skipWhitespace();
+            }
+            if( operands.isEmpty() )
+            {
+                throw error( "Missing operands" );
+            }
+            node = new Composite( c == '&', operands );
+        }
+        else if( c == '!' )
+        {
+            m_position++;
+            node = new Not( parseFilter() );
+            skipWhitespace();
+        }
+        else
+        {
+            node = parseComparison();
+        }
+
+        expect( ')' );
+        return node;
+    }
+
+    private Node parseComparison()
+        throws InvalidSyntaxException
+    {
+        int equals = m_filter.indexOf( '=', m_position );
+        int end = m_filter.indexOf( ')', m_position );
+        if( equals < 0 || end < 0 || equals > end )
+        {
+            throw error( "Expected a comparison" );
+        }
+
+        String attribute = m_filter.substring( m_position, equals ).trim();
+        if( attribute.length() == 0 )
+        {
+            throw error( "Missing attribute" );
+        }
+
+        StringBuilder value = new StringBuilder();
+        m_position = equals + 1;
+        while( peek() != ')' )
+        {
+            char c = m_filter.charAt( m_position++ );
+            if( c == '\\' )
+            {
+                c = peek();
+                m_position++;
+            }
+            else if( c == '*' || c == '(' )
+            {
+                if( c == '*' && value.toString().trim().length() == 0 && peek() == ')' )
+                {
+                    return new Comparison( attribute, null );
+                }
+                throw error( "Unsupported character '" + c + "'" );
+            }
+            value.append( c );
+        }
+        return new Comparison( attribute, value.toString().trim() );
+    }
+
+    private void skipWhitespace()
+    {
+        while( m_position < m_filter.length() && Character.isWhitespace( m_filter.charAt( m_position ) ) )
+        {
+            m_position++;
+        }
+    }
+
+    private char peek()
+        throws InvalidSyntaxException
+    {
+        if( m_position >= m_filter.length() )
+        {
+            throw error( "Unexpected end of filter" );
+        }
+        return m_filter.charAt( m_position );
+    }
+
+    private void expect( char c )
+        throws InvalidSyntaxException
+    {
+        if( peek() != c )
+        {
+            throw error( "Expected '" + c + "'" );
+        }
+        m_position++;
+    }
+
+    private InvalidSyntaxException error( String message )
+    {
+        return new InvalidSyntaxException( message + " at position " + m_position, m_filter );
+    }
+
+    private static interface Node
+    {
+
+        boolean matches( Dictionary properties );
+    }
+
+    private static final class Composite
+        implements Node
+    {
+
+        private final boolean m_and;
+        private final List<Node> m_operands;
+
+        private Composite( boolean and, List<Node> operands )
+        {
+            m_and = and;
+            m_operands = operands;
+        }
+
+        public boolean matches( Dictionary properties )
+        {
+            for( Node operand : m_operands )
+            {
+                if( operand.matches( properties ) != m_and )
+                {
+                    return !m_and;
+                }
+            }
+            return m_and;
+        }
+    }
+
+    private static final class Not
+        implements Node
+    {
+
+        private final Node m_operand;
+
+        private Not( Node operand )
+        {
+            m_operand = operand;
+        }
+
+        public boolean matches( Dictionary properties )
+        {
+            return !m_operand.matches( properties );
+        }
+    }
+
+    private static final class Comparison
+        implements Node
+    {
+
+        private final String m_attribute;
+        /**
+         * The value to compare to, {@code null} for a presence comparison.
+         */
+        private final String m_value;
+
+        private Comparison( String attribute, String value )
+        {
+            m_attribute = attribute;
+            m_value = value;
+        }
+
+        public boolean matches( Dictionary properties )
+        {
+            Object actual = properties.get( m_attribute );
+            if( actual == null )
+            {
+                for( Enumeration e = properties.keys(); e.hasMoreElements(); )
+                {
+                    Object key = e.nextElement();
+                    if( m_attribute.equalsIgnoreCase( String.valueOf( key ) ) )
+                    {
+                        actual = properties.get( key );
+                        break;
+                    }
+                }
+            }
+
+            if( actual == null )
+            {
+                return false;
+            }
+            return m_value == null || m_value.equals( String.valueOf( actual ) );
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.ops4j.lang.NullArgumentException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+/**
+ * {@code InMemoryConfigurationAdmin} is a configuration admin service that keeps configurations in memory.
+ * <p>
+ * Like a real configuration admin service, every update or delete is dispatched to the managed services on a single
+ * event thread. There are no managed services here; instead, the dispatcher spends {@code dispatchLatency}
+ * microseconds per event and records how long each event waited from the update until it was dispatched.
+ * <p>
+ * Factory configurations get generated pids, as they do in a real configuration admin service.
+ */
+final class InMemoryConfigurationAdmin
+    implements ConfigurationAdmin
+{
+
+    private final Map<String, InMemoryConfiguration> m_configurations;
+    private final long m_dispatchLatencyNanos;
+    private final ExecutorService m_dispatcher;
+    private final LatencyRecorder m_dispatchLatency;
+    private final Object m_lock;
+
+    private int m_pending;
+    private long m_updates;
+    private long m_nextFactoryInstance;
+
+    /**
+     * @param dispatchLatency Time in microseconds spent dispatching every configuration event.
+     */
+    InMemoryConfigurationAdmin( long dispatchLatency )
+    {
+        m_configurations = new HashMap<String, InMemoryConfiguration>();
+        m_dispatchLatencyNanos = dispatchLatency * 1000;
+        m_dispatcher = Executors.newSingleThreadExecutor();
+        m_dispatchLatency = new LatencyRecorder();
+        m_lock = new Object();
+    }
+
+    public Configuration createFactoryConfiguration( String factoryPid )
+        throws IOException
+    {
+        return createFactoryConfiguration( factoryPid, null );
+    }
+
+    public Configuration createFactoryConfiguration( String factoryPid, String location )
+        throws IOException
+    {
+        NullArgumentException.validateNotNull( factoryPid, "factoryPid" );
+
+        synchronized( m_configurations )
+        {
+            String pid = factoryPid + "-" + ( ++m_nextFactoryInstance );
+            InMemoryConfiguration configuration = new InMemoryConfiguration( pid, factoryPid, location );
+            m_configurations.put( pid, configuration );
+            return configuration;
+        }
+    }
+
+    public Configuration getConfiguration( String pid )
+        throws IOException
+    {
+        return getConfiguration( pid, null );
+    }
+
+    public Configuration getConfiguration( String pid, String location )
+        throws IOException
+    {
+        NullArgumentException.validateNotNull( pid, "pid" );
+
+        synchronized( m_configurations )
+        {
+            InMemoryConfiguration configuration = m_configurations.get( pid );
+            if( configuration == null )
+            {
+                configuration = new InMemoryConfiguration( pid, null, location );
+                m_configurations.put( pid, configuration );
+            }
+            return configuration;
+        }
+    }
+
+    public Configuration[] listConfigurations( String filter )
+        throws IOException, InvalidSyntaxException
+    {
+        FilterMatcher matcher = filter == null ? null : new FilterMatcher( filter );
+
+        List<Configuration> result = new ArrayList<Configuration>();
+        synchronized( m_configurations )
+        {
+            for( InMemoryConfiguration configuration : m_configurations.values() )
+            {
+                // Configurations that were never updated are not listed
+                Dictionary properties = configuration.getProperties();
+                if( properties != null && ( matcher == null || matcher.matches( properties ) ) )
+                {
+                    result.add( configuration );
+                }
+            }
+        }
+
+        if( result.isEmpty() )
+        {
+            return null;
+        }
+        return result.toArray( new Configuration[result.size()] );
+    }
+
+    /**
+     * @return the number of configurations, including those that were never updated.
+     */
+    final int size()
+    {
+        synchronized( m_configurations )
+        {
+            return m_configurations.size();
+        }
+    }
+
+    /**
+     * @return the number of dispatched events since the last {@link #reset()}.
+     */
+    final long getUpdates()
+    {
+        synchronized( m_lock )
+        {
+            return m_updates;
+        }
+    }
+
+    /**
+     * @return the time events waited from the update until they were dispatched.
+     */
+    final LatencyRecorder getDispatchLatency()
+    {
+        return m_dispatchLatency;
+    }
+
+    final void reset()
+    {
+        synchronized( m_lock )
+        {
+            m_updates = 0;
+        }
+        m_dispatchLatency.reset();
+    }
+
+    /**
+     * Blocks until all events have been dispatched.
+     *
+     * @throws InterruptedException Thrown if the calling thread is interrupted while waiting.
+     */
+    final void awaitDispatched()
+        throws InterruptedException
+    {
+        synchronized( m_lock )
+        {
+            while( m_pending > 0 )
+            {
+                m_lock.wait();
+            }
+        }
+    }
+
+    final void shutdown()
+        throws InterruptedException
+    {
+        m_dispatcher.shutdown();
+        m_dispatcher.awaitTermination( 1, TimeUnit.MINUTES );
+    }
+
+    private void dispatch()
+    {
+        final long enqueued = System.nanoTime();
+        synchronized( m_lock )
+        {
+            m_pending++;
+        }
+
+        m_dispatcher.execute( new Runnable()
+        {
+
+            public void run()
+            {
+                long started = System.nanoTime();
+                m_dispatchLatency.record( started - enqueued );
+
+                // Stands in for the managed service callbacks
+                while( System.nanoTime() - started < m_dispatchLatencyNanos )
+                {
+                    Thread.yield();
+                }
+
+                synchronized( m_lock )
+                {
+                    m_updates++;
+                    m_pending--;
+                    m_lock.notifyAll();
+                }
+            }
+        }
+        );
+    }
+
+    private final class InMemoryConfiguration
+        implements Configuration
+    {
+
+        private final String m_pid;
+        private final String m_factoryPid;
+        private String m_location;
+        private Hashtable<Object, Object> m_properties;
+
+        private InMemoryConfiguration( String pid, String factoryPid, String location )
+        {
+            m_pid = pid;
+            m_factoryPid = factoryPid;
+            m_location = location;
+        }
+
+        public String getPid()
+        {
+            return m_pid;
+        }
+
+        public String getFactoryPid()
+        {
+            return m_factoryPid;
+        }
+
+        public synchronized Dictionary getProperties()
+        {
+            if( m_properties == null )
+            {
+                return null;
+            }
+            return new Hashtable<Object, Object>( m_properties );
+        }
+
+        public void update( Dictionary properties )
+            throws IOException
+        {
+            Hashtable<Object, Object> copy = new Hashtable<Object, Object>();
+            if( properties != null )
+            {
+                for( Enumeration e = properties.keys(); e.hasMoreElements(); )
+                {
+                    Object key = e.nextElement();
+                    copy.put( key, properties.get( key ) );
+                }
+            }
+            copy.put( Constants.SERVICE_PID, m_pid );
+            if( m_factoryPid != null )
+            {
+                copy.put( ConfigurationAdmin.SERVICE_FACTORYPID, m_factoryPid );
+            }
+
+            synchronized( this )
+            {
+                m_properties = copy;
+            }
+            dispatch();
+        }
+
+        public void update()
+            throws IOException
+        {
+            dispatch();
+        }
+
+        public void delete()
+            throws IOException
+        {
+            synchronized( m_configurations )
+            {
+                m_configurations.remove( m_pid );
+            }
+            dispatch();
+        }
+
+        public synchronized String getBundleLocation()
+        {
+            return m_location;
+        }
+
+        public synchronized void setBundleLocation( String location )
+        {
+            m_location = location;
+        }
+    }
+}
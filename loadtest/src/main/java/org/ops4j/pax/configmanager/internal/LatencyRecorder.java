@@ -0,0 +1,87 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.util.Arrays;
+
+/**
+ * {@code LatencyRecorder} collects latency samples in nanoseconds and reports percentiles. It keeps every sample,
+ * which is fine for the sample counts of a load test run.
+ */
+final class LatencyRecorder
+{
+
+    private long[] m_samples;
+    private int m_count;
+
+    LatencyRecorder()
+    {
+        m_samples = new long[1024];
+    }
+
+    /**
+     * @param nanos The latency of one operation in nanoseconds.
+     */
+    final synchronized void record( long nanos )
+    {
+        if( m_count == m_samples.length )
+        {
+            long[] samples = new long[m_samples.length * 2];
+            System.arraycopy( m_samples, 0, samples, 0, m_count );
+            m_samples = samples;
+        }
+        m_samples[ m_count++ ] = nanos;
+    }
+
+    final synchronized int getCount()
+    {
+        return m_count;
+    }
+
+    final synchronized void reset()
+    {
+        m_count = 0;
+    }
+
+    /**
+     * @param percentile The percentile, between {@code 0} and {@code 100}.
+     *
+     * @return the latency in nanoseconds below which {@code percentile} percent of the samples fall, {@code 0} if
+     *         there are no samples.
+     */
+    final synchronized long getPercentile( double percentile )
+    {
+        if( m_count == 0 )
+        {
+            return 0;
+        }
+
+        long[] sorted = new long[m_count];
+        System.arraycopy( m_samples, 0, sorted, 0, m_count );
+        Arrays.sort( sorted );
+        int index = (int) Math.ceil( percentile / 100 * m_count ) - 1;
+        return sorted[ Math.max( 0, Math.min( m_count - 1, index ) ) ];
+    }
+
+    /**
+     * @return the p50, p90, p99 and maximum latencies in microseconds.
+     */
+    public final String toString()
+    {
+        return "p50=" + getPercentile( 50 ) / 1000 + "us p90=" + getPercentile( 90 ) / 1000 + "us p99="
+            + getPercentile( 99 ) / 1000 + "us max=" + getPercentile( 100 ) / 1000 + "us (n=" + getCount() + ")";
+    }
+}
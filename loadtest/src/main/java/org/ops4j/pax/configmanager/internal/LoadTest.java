@@ -0,0 +1,418 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ops4j.pax.configmanager.IConfigurationResourceHandler;
+import org.ops4j.pax.configmanager.IConfigurationUpdater;
+import org.ops4j.pax.configmanager.internal.handlers.JsonFileConfigurationHandler;
+import org.ops4j.pax.configmanager.internal.handlers.PropertiesFileConfigurationHandler;
+
+/**
+ * {@code LoadTest} drives the {@link ConfigurationAdminFacade} against an {@link InMemoryConfigurationAdmin} in a plain
+ * JVM and reports throughput, latency percentiles and the approximate heap retained by each scenario.
+ * <pre>
+ * java -cp ... org.ops4j.pax.configmanager.internal.LoadTest [options] scenario...
+ *
+ * scenarios:
+ *   cold-start     registers a freshly generated configuration area
+ *   mass-edit      edits a fraction of the files and reloads the whole area
+ *   updater-storm  calls IConfigurationUpdater.updateConfiguration for random pids from many threads
+ *   handler-churn  runs an updater storm while a handler is removed and added again and again
+ *   async-start    hands the initial load to the loader thread, as the configuration admin tracker does
+ *   all            runs all of the above
+ *
+ * options:
+ *   -services N    number of service files (1000)
+ *   -factories N   number of factory files (100)
+ *   -keys N        number of keys per configuration (10)
+ *   -instances N   number of instances per factory (5)
+ *   -latency N     dispatch latency of the configuration admin in microseconds (50)
+ *   -threads N     number of updater threads (8)
+ *   -calls N       number of updater calls per thread (100)
+ *   -edit F        fraction of files edited by mass-edit (0.2)
+ *   -dir PATH      configuration area to generate, a temporary directory by default
+ * </pre>
+ * Loader properties such as {@code bundles.configuration.update.rate} are read from system properties.
+ */
+public final class LoadTest
+{
+
+    private static final String[] ALL_SCENARIOS =
+        { "cold-start", "mass-edit", "updater-storm", "handler-churn", "async-start" };
+
+    private final Map<String, String> m_options;
+    private final List<String> m_scenarios;
+    private File m_root;
+    private ConfigurationTreeGenerator m_generator;
+    private int m_generation;
+
+    private LoadTest( String[] args )
+        throws IllegalArgumentException
+    {
+        m_options = new HashMap<String, String>();
+        m_options.put( "services", "1000" );
+        m_options.put( "factories", "100" );
+        m_options.put( "keys", "10" );
+        m_options.put( "instances", "5" );
+        m_options.put( "latency", "50" );
+        m_options.put( "threads", "8" );
+        m_options.put( "calls", "100" );
+        m_options.put( "edit", "0.2" );
+
+        m_scenarios = new ArrayList<String>();
+        for( int i = 0; i < args.length; i++ )
+        {
+            if( args[ i ].startsWith( "-" ) )
+            {
+                String option = args[ i ].substring( 1 );
+                if( !m_options.containsKey( option ) && !"dir".equals( option ) || i + 1 == args.length )
+                {
+                    throw new IllegalArgumentException( "Invalid option [" + args[ i ] + "]." );
+                }
+                m_options.put( option, args[ ++i ] );
+            }
+            else if( "all".equals( args[ i ] ) )
+            {
+                for( String scenario : ALL_SCENARIOS )
+                {
+                    m_scenarios.add( scenario );
+                }
+            }
+            else
+            {
+                m_scenarios.add( args[ i ] );
+            }
+        }
+
+        if( m_scenarios.isEmpty() )
+        {
+            throw new IllegalArgumentException( "No scenario given." );
+        }
+    }
+
+    public static void main( String[] args )
+        throws Exception
+    {
+        LoadTest loadTest;
+        try
+        {
+            loadTest = new LoadTest( args );
+        }
+        catch( IllegalArgumentException e )
+        {
+            System.err.println( e.getMessage() );
+            System.err.println( "Usage: LoadTest [options] cold-start | mass-edit | updater-storm | handler-churn"
+                + " | async-start | all" );
+            System.exit( 1 );
+            return;
+        }
+        loadTest.run();
+    }
+
+    private void run()
+        throws Exception
+    {
+        if( m_options.containsKey( "dir" ) )
+        {
+            m_root = new File( m_options.get( "dir" ) );
+        }
+        else
+        {
+            m_root = File.createTempFile( "confman-loadtest", "" );
+            if( !m_root.delete() || !m_root.mkdir() )
+            {
+                throw new IOException( "Can not create directory [" + m_root + "]." );
+            }
+        }
+
+        m_generator = new ConfigurationTreeGenerator( m_root, getInt( "services" ), getInt( "factories" ),
+            getInt( "keys" ), getInt( "instances" ), 42 );
+        m_generator.generate();
+        System.out.println( "Generated [" + m_generator.getFiles() + "] configuration files in [" + m_root + "]." );
+
+        for( String scenario : m_scenarios )
+        {
+            if( "cold-start".equals( scenario ) )
+            {
+                coldStart();
+            }
+            else if( "mass-edit".equals( scenario ) )
+            {
+                massEdit();
+            }
+            else if( "updater-storm".equals( scenario ) )
+            {
+                updaterStorm( false );
+            }
+            else if( "handler-churn".equals( scenario ) )
+            {
+                updaterStorm( true );
+            }
+            else if( "async-start".equals( scenario ) )
+            {
+                asyncStart();
+            }
+            else
+            {
+                System.err.println( "Unknown scenario [" + scenario + "]." );
+            }
+        }
+    }
+
+    private void coldStart()
+        throws Exception
+    {
+        Harness harness = new Harness();
+        long heap = usedHeap();
+        long start = System.nanoTime();
+        harness.m_facade.registerConfigurations( null, false );
+        harness.m_admin.awaitDispatched();
+        long elapsed = System.nanoTime() - start;
+
+        report( "cold-start", m_generator.getFiles(), "files", elapsed, heap, harness, null );
+        harness.dispose();
+    }
+
+    private void massEdit()
+        throws Exception
+    {
+        Harness harness = new Harness();
+        harness.m_facade.registerConfigurations( null, false );
+        harness.m_admin.awaitDispatched();
+        harness.m_admin.reset();
+
+        int edited = m_generator.edit( Double.parseDouble( m_options.get( "edit" ) ), ++m_generation );
+
+        long heap = usedHeap();
+        long start = System.nanoTime();
+        harness.m_facade.registerConfigurations( null, true );
+        harness.m_admin.awaitDispatched();
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println( "[mass-edit] edited [" + edited + "] of [" + m_generator.getFiles() + "] files." );
+        report( "mass-edit", m_generator.getFiles(), "files", elapsed, heap, harness, null );
+        harness.dispose();
+    }
+
+    private void updaterStorm( final boolean churn )
+        throws Exception
+    {
+        final String scenario = churn ? "handler-churn" : "updater-storm";
+        final Harness harness = new Harness();
+        harness.m_facade.registerConfigurations( null, false );
+        harness.m_admin.awaitDispatched();
+        harness.m_admin.reset();
+
+        final IConfigurationUpdater updater = new ConfigurationUpdater( harness.m_facade );
+        final LatencyRecorder calls = new LatencyRecorder();
+        final AtomicInteger failures = new AtomicInteger();
+        final int callsPerThread = getInt( "calls" );
+        final int services = m_generator.getServices();
+
+        Thread[] threads = new Thread[getInt( "threads" )];
+        for( int t = 0; t < threads.length; t++ )
+        {
+            final Random random = new Random( t );
+            threads[ t ] = new Thread( scenario + "-" + t )
+            {
+                public void run()
+                {
+                    for( int i = 0; i < callsPerThread; i++ )
+                    {
+                        String servicePid = m_generator.getServicePid( random.nextInt( services ) );
+                        long start = System.nanoTime();
+                        try
+                        {
+                            updater.updateConfiguration( servicePid );
+                        }
+                        catch( Exception e )
+                        {
+                            failures.incrementAndGet();
+                        }
+                        calls.record( System.nanoTime() - start );
+                    }
+                }
+            };
+        }
+
+        final AtomicInteger churns = new AtomicInteger();
+        final AtomicBoolean stopped = new AtomicBoolean();
+        Thread churner = new Thread( scenario + "-churn" )
+        {
+            public void run()
+            {
+                IConfigurationResourceHandler handler = new JsonFileConfigurationHandler();
+                while( !stopped.get() )
+                {
+                    harness.m_facade.addFileHandler( handler );
+                    harness.m_facade.removeFileHandler( handler );
+                    churns.incrementAndGet();
+                }
+            }
+        };
+
+        long heap = usedHeap();
+        long start = System.nanoTime();
+        if( churn )
+        {
+            churner.start();
+        }
+        for( Thread thread : threads )
+        {
+            thread.start();
+        }
+        for( Thread thread : threads )
+        {
+            thread.join();
+        }
+        stopped.set( true );
+        if( churn )
+        {
+            churner.join();
+        }
+        harness.m_admin.awaitDispatched();
+        long elapsed = System.nanoTime() - start;
+
+        if( churn )
+        {
+            System.out.println( "[" + scenario + "] handler added and removed [" + churns.get() + "] times." );
+        }
+        if( failures.get() > 0 )
+        {
+            System.out.println( "[" + scenario + "] [" + failures.get() + "] calls failed." );
+        }
+        report( scenario, calls.getCount(), "calls", elapsed, heap, harness, calls );
+        harness.dispose();
+    }
+
+    private void asyncStart()
+        throws Exception
+    {
+        Harness harness = new Harness();
+        final CountDownLatch loaded = new CountDownLatch( 1 );
+        harness.m_facade.setLoadListener( new ConfigurationAdminFacade.LoadListener()
+        {
+
+            public void pushed( String servicePid, boolean isFactory )
+            {
+            }
+
+            public void loaded( int pushed, int skipped, int failed, long duration )
+            {
+                loaded.countDown();
+            }
+        }
+        );
+        ConfigurationLoader loader = new ConfigurationLoader( harness.m_facade );
+
+        long heap = usedHeap();
+        long start = System.nanoTime();
+        loader.restore();
+        long handedOff = System.nanoTime() - start;
+        loaded.await();
+        harness.m_admin.awaitDispatched();
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println( "[async-start] caller blocked for " + handedOff / 1000 + " us." );
+        report( "async-start", m_generator.getFiles(), "files", elapsed, heap, harness, null );
+        loader.close();
+        harness.dispose();
+    }
+
+    private static void report( String scenario, int operations, String unit, long elapsed, long heap,
+        Harness harness, LatencyRecorder calls )
+    {
+        long millis = elapsed / 1000000;
+        double perSecond = operations * 1000000000.0 / Math.max( 1, elapsed );
+        System.out.println( "[" + scenario + "] " + operations + " " + unit + " in " + millis + " ms, "
+            + Math.round( perSecond ) + " " + unit + "/s" );
+        if( calls != null )
+        {
+            System.out.println( "[" + scenario + "] call latency " + calls );
+        }
+        System.out.println( "[" + scenario + "] dispatch latency " + harness.m_admin.getDispatchLatency() );
+        System.out.println( "[" + scenario + "] " + harness.m_admin.getUpdates() + " events dispatched, "
+            + harness.m_admin.size() + " configurations, heap retained ~" + ( usedHeap() - heap ) / 1024 + " KB" );
+    }
+
+    /**
+     * Returns the used heap after a full collection. The difference between two calls approximates the memory
+     * retained in between; Java 5 has no portable per thread allocation counter.
+     */
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for( int i = 0; i < 3; i++ )
+        {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private int getInt( String option )
+    {
+        return Integer.parseInt( m_options.get( option ) );
+    }
+
+    /**
+     * A facade wired to a fresh configuration admin, as the {@code Activator} wires it in a container.
+     */
+    private final class Harness
+    {
+
+        private final ConfigurationAdminFacade m_facade;
+        private final InMemoryConfigurationAdmin m_admin;
+
+        private Harness()
+        {
+            m_facade = new ConfigurationAdminFacade( new ConfigurationAdminFacade.PropertyResolver()
+            {
+
+                public String getProperty( String key )
+                {
+                    if( ConfigurationAdminFacade.BUNDLES_CONFIGURATION_LOCATION.equals( key ) )
+                    {
+                        return m_root.getAbsolutePath();
+                    }
+                    return System.getProperty( key );
+                }
+            }
+            );
+            m_facade.addFileHandler( (IConfigurationResourceHandler) new PropertiesFileConfigurationHandler() );
+
+            m_admin = new InMemoryConfigurationAdmin( Long.parseLong( m_options.get( "latency" ) ) );
+            m_facade.setConfigurationAdminService( m_admin );
+        }
+
+        private void dispose()
+            throws InterruptedException
+        {
+            m_facade.dispose();
+            m_admin.shutdown();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * {@code ConfigurationDiff} describes the service pids and keys that a configuration load would change in the
+ * configuration admin service. Instances of a managed service factory are reported as {@code <factoryPid>.<index>}.
+ */
+public final class ConfigurationDiff
+{
+
+    private final Set<String> m_addedPids;
+    private final Set<String> m_removedPids;
+    private final Map<String, Set<String>> m_addedKeys;
+    private final Map<String, Set<String>> m_changedKeys;
+    private final Map<String, Set<String>> m_removedKeys;
+
+    public ConfigurationDiff()
+    {
+        m_addedPids = new TreeSet<String>();
+        m_removedPids = new TreeSet<String>();
+        m_addedKeys = new TreeMap<String, Set<String>>();
+        m_changedKeys = new TreeMap<String, Set<String>>();
+        m_removedKeys = new TreeMap<String, Set<String>>();
+    }
+
+    /**
+     * Records that the specified {@code servicePid} does not exist yet and would be created with {@code keys}.
+     *
+     * @param servicePid The service pid. This argument must not be {@code null}.
+     * @param keys       The keys of the new configuration. This argument must not be {@code null}.
+     */
+    public final void pidAdded( String servicePid, Collection<String> keys )
+    {
+        m_addedPids.add( servicePid );
+        m_addedKeys.put( servicePid, new TreeSet<String>( keys ) );
+    }
+
+    /**
+     * Records that the existing configuration of {@code servicePid} would change. Empty collections are ignored; if
+     * all of them are empty the pid is not recorded.
+     *
+     * @param servicePid  The service pid. This argument must not be {@code null}.
+     * @param addedKeys   The keys that would be added. This argument must not be {@code null}.
+     * @param changedKeys The keys whose value would change. This argument must not be {@code null}.
+     * @param removedKeys The keys that would be removed. This argument must not be {@code null}.
+     */
+    public final void pidChanged( String servicePid, Collection<String> addedKeys, Collection<String> changedKeys,
+        Collection<String> removedKeys )
+    {
+        put( m_addedKeys, servicePid, addedKeys );
+        put( m_changedKeys, servicePid, changedKeys );
+        put( m_removedKeys, servicePid, removedKeys );
+    }
+
+    /**
+     * Records that the specified {@code servicePid} was previously loaded but is no longer part of the configuration.
+     *
+     * @param servicePid The service pid. This argument must not be {@code null}.
+     */
+    public final void pidRemoved( String servicePid )
+    {
+        m_removedPids.add( servicePid );
+    }
+
+    private static void put( Map<String, Set<String>> map, String servicePid, Collection<String> keys )
+    {
+        if( !keys.isEmpty() )
+        {
+            map.put( servicePid, new TreeSet<String>( keys ) );
+        }
+    }
+
+    /**
+     * @return the service pids that would be created, ordered by name.
+     */
+    public final Set<String> getAddedPids()
+    {
+        return Collections.unmodifiableSet( m_addedPids );
+    }
+
+    /**
+     * @return the existing service pids whose configuration would change, ordered by name.
+     */
+    public final Set<String> getChangedPids()
+    {
+        Set<String> changed = new TreeSet<String>();
+        changed.addAll( m_addedKeys.keySet() );
+        changed.addAll( m_changedKeys.keySet() );
+        changed.addAll( m_removedKeys.keySet() );
+        changed.removeAll( m_addedPids );
+        return changed;
+    }
+
+    /**
+     * @return the service pids that were loaded before but are no longer part of the configuration, ordered by name.
+     */
+    public final Set<String> getRemovedPids()
+    {
+        return Collections.unmodifiableSet( m_removedPids );
+    }
+
+    /**
+     * @param servicePid The service pid.
+     *
+     * @return the keys {@code servicePid} would gain, never {@code null}.
+     */
+    public final Set<String> getAddedKeys( String servicePid )
+    {
+        return get( m_addedKeys, servicePid );
+    }
+
+    /**
+     * @param servicePid The service pid.
+     *
+     * @return the keys of {@code servicePid} whose value would change, never {@code null}.
+     */
+    public final Set<String> getChangedKeys( String servicePid )
+    {
+        return get( m_changedKeys, servicePid );
+    }
+
+    /**
+     * @param servicePid The service pid.
+     *
+     * @return the keys {@code servicePid} would lose, never {@code null}.
+     */
+    public final Set<String> getRemovedKeys( String servicePid )
+    {
+        return get( m_removedKeys, servicePid );
+    }
+
+    private static Set<String> get( Map<String, Set<String>> map, String servicePid )
+    {
+        Set<String> keys = map.get( servicePid );
+        if( keys == null )
+        {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet( keys );
+    }
+
+    /**
+     * @return {@code true} if loading the configuration would not change anything.
+     */
+    public final boolean isEmpty()
+    {
+        return m_addedPids.isEmpty() && m_removedPids.isEmpty() && m_addedKeys.isEmpty() && m_changedKeys.isEmpty()
+            && m_removedKeys.isEmpty();
+    }
+
+    @Override
+    public final String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        for( String servicePid : m_addedPids )
+        {
+            builder.append( "+ " ).append( servicePid ).append( ' ' ).append( getAddedKeys( servicePid ) ).append( '\n' );
+        }
+        for( String servicePid : getChangedPids() )
+        {
+            builder.append( "~ " ).append( servicePid )
+                .append( " added=" ).append( getAddedKeys( servicePid ) )
+                .append( " changed=" ).append( getChangedKeys( servicePid ) )
+                .append( " removed=" ).append( getRemovedKeys( servicePid ) ).append( '\n' );
+        }
+        for( String servicePid : m_removedPids )
+        {
+            builder.append( "- " ).append( servicePid ).append( '\n' );
+        }
+        return builder.toString();
+    }
+}
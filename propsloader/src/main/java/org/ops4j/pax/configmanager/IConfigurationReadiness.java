@@ -0,0 +1,101 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager;
+
+/**
+ * {@code IConfigurationReadiness} is registered once the initial load of the configuration area has completed, so that
+ * other bundles can wait for it with a service dependency instead of a fixed timeout. The counts of the initial load
+ * are also available as service properties.
+ * <p>
+ * If an EventAdmin service is available, the loader additionally posts a {@link #TOPIC_PUSHED} event for every
+ * configuration it pushes, and a {@link #TOPIC_LOADED} event whenever a load of the whole configuration area completes
+ * or fails. A failed initial load registers the service too, with a non-zero {@link #FAILED} count.
+ */
+public interface IConfigurationReadiness
+{
+
+    /**
+     * Topic of the event posted when a configuration was pushed to the configuration admin service. The event carries
+     * {@link #SERVICE_PID} and {@link #FACTORY}.
+     */
+    String TOPIC_PUSHED = "org/ops4j/pax/configmanager/Configuration/PUSHED";
+
+    /**
+     * Topic of the event posted when a load of the whole configuration area completed. The event carries
+     * {@link #PUSHED}, {@link #SKIPPED}, {@link #FAILED} and {@link #DURATION}.
+     */
+    String TOPIC_LOADED = "org/ops4j/pax/configmanager/Configuration/LOADED";
+
+    /**
+     * Event property holding the service pid, or the factory pid, of the pushed configuration.
+     */
+    String SERVICE_PID = "service.pid";
+
+    /**
+     * Event property holding a {@link Boolean} indicating a managed service factory configuration.
+     */
+    String FACTORY = "configuration.factory";
+
+    /**
+     * Service and event property holding the number of pushed configurations as an {@link Integer}.
+     */
+    String PUSHED = "configuration.pushed";
+
+    /**
+     * Service and event property holding the number of configurations skipped because they were up to date.
+     */
+    String SKIPPED = "configuration.skipped";
+
+    /**
+     * Service and event property holding the number of configuration files that failed to load, plus one if the load
+     * itself failed.
+     */
+    String FAILED = "configuration.failed";
+
+    /**
+     * Service and event property holding the duration of the load in milliseconds as a {@link Long}.
+     */
+    String DURATION = "configuration.duration";
+
+    /**
+     * @return the number of configurations pushed by the initial load.
+     */
+    int getPushedCount();
+
+    /**
+     * @return the number of configurations the initial load skipped because they were up to date.
+     */
+    int getSkippedCount();
+
+    /**
+     * @return the number of configuration files that failed to load during the initial load, plus one if the initial
+     *         load itself failed.
+     */
+    int getFailedCount();
+
+    /**
+     * @return the duration of the initial load in milliseconds.
+     */
+    long getDuration();
+
+    /**
+     * Returns {@code true} if the loader pushed the configuration of {@code servicePid}, or found it up to date.
+     *
+     * @param servicePid the service.pid, or factory pid, of the configuration.
+     * @return a {@code boolean} indicator whether the configuration is in place.
+     */
+    boolean isConfigured( String servicePid );
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager;
+
+/**
+ * {@code IConfigurationResource} describes a configuration file handed to an {@link IConfigurationResourceHandler}.
+ * The resource may be a file on disk or an entry of a configuration archive; its contents are supplied by the loader.
+ */
+public interface IConfigurationResource
+{
+
+    /**
+     * Returns the file name of this resource without any directory prefix, e.g. {@code my.pid.properties}.
+     *
+     * @return The file name.
+     */
+    String getName();
+
+    /**
+     * Returns the path of this resource relative to the configuration area, e.g. {@code services/my.pid.properties}.
+     *
+     * @return The path.
+     */
+    String getPath();
+
+    /**
+     * Returns {@code true} if this resource configures a managed service factory.
+     *
+     * @return A {@code boolean} indicator whether this resource is located in the {@code factories} directory.
+     */
+    boolean isFactory();
+
+    /**
+     * Returns the size of this resource in bytes, or {@code -1} if unknown.
+     *
+     * @return The size.
+     */
+    long getSize();
+
+    /**
+     * Returns the last modification time of this resource in milliseconds, or {@code 0} if unknown.
+     *
+     * @return The last modification time.
+     */
+    long getLastModified();
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * {@code IConfigurationResourceHandler} loads configuration resources whose contents are read by the loader. Unlike
+ * {@link IConfigurationFileHandler} it does not open files itself, so it works for any configuration source, e.g.
+ * configuration archives, and lets the loader buffer and fingerprint the contents centrally.
+ * <p>
+ * Handlers registered as {@link IConfigurationFileHandler} services keep working; they are adapted by the loader.
+ */
+public interface IConfigurationResourceHandler
+{
+
+    /**
+     * Returns the configuration name of the specified {@code fileName}. The specified {@code fileName} must not have
+     * file path prefix. Returns {@code null} if the file name can not be handled by this handler.
+     *
+     * @param fileName The file name. This argument must not be {@code null}.
+     *
+     * @return Returns the service pid given the {@code fileName} argument.
+     */
+    String getServicePID( String fileName );
+
+    /**
+     * Returns {@code true} if the specified {@code resource} can be handled by this handler. Implementations must not
+     * read the resource.
+     *
+     * @param resource The resource to be handled. This argument must not be {@code null}.
+     *
+     * @return A {@code boolean} indicator whether this handler is able to handle {@code resource}.
+     */
+    boolean canHandle( IConfigurationResource resource );
+
+    /**
+     * Returns the properties loaded from the specified {@code stream}. Returns {@code empty} properties if the
+     * resource does not have any configuration properties. The stream is supplied and closed by the loader.
+     *
+     * @param resource The resource being loaded. This argument must not be {@code null}.
+     * @param stream   The contents of {@code resource}. This argument must not be {@code null}.
+     *
+     * @return Returns the {@code Properties} of the specified {@code resource}.
+     *
+     * @throws IOException Thrown if the contents can not be read or parsed.
+     */
+    Properties handle( IConfigurationResource resource, InputStream stream )
+        throws IOException;
+}
@@ -20,4 +20,39 @@ public interface IConfigurationUpdater
         throws IllegalStateException,
         IOException,
         InvalidSyntaxException;
+
+    /**
+     * Computes what {@link #updateConfiguration(String)} would change, without creating or updating any configuration.
+     * No managed service is called back.
+     * 
+     * @param servicePid the service.pid of the service that should be compared, or {@code null} to compare all
+     *            configuration files.
+     * @return the added, changed and removed service pids and keys.
+     * @throws IllegalStateException if no ConfigurationAdmin service is available
+     * @throws IOException in case of errors while loading the configuration
+     * @throws InvalidSyntaxException if there are erroneous filters while trying to retrieve configurations from the
+     *             ConfigurationAdmin
+     */
+    public ConfigurationDiff diffConfiguration( String servicePid )
+        throws IllegalStateException,
+        IOException,
+        InvalidSyntaxException;
+
+    /**
+     * Restores the configuration of a managed service to a version pushed earlier by the loader, with a single update.
+     * The configuration files are not changed.
+     * 
+     * @param servicePid the service.pid of the service that should be rolled back.
+     * @param steps the number of versions to go back, {@code 1} for the version before the last push.
+     * @throws IllegalArgumentException if the loader did not keep {@code steps} older versions of the service
+     * @throws IllegalStateException if no ConfigurationAdmin service is available
+     * @throws IOException in case of errors while updating the configuration
+     * @throws InvalidSyntaxException if there are erroneous filters while trying to retrieve configurations from the
+     *             ConfigurationAdmin
+     */
+    public void rollbackConfiguration( String servicePid, int steps )
+        throws IllegalArgumentException,
+        IllegalStateException,
+        IOException,
+        InvalidSyntaxException;
 }
@@ -15,12 +15,16 @@
  */
 package org.ops4j.pax.configmanager.internal;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Hashtable;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.ops4j.pax.configmanager.IConfigurationFileHandler;
+import org.ops4j.pax.configmanager.IConfigurationResourceHandler;
 import org.ops4j.pax.configmanager.IConfigurationUpdater;
+import org.ops4j.pax.configmanager.internal.handlers.JsonFileConfigurationHandler;
 import org.ops4j.pax.configmanager.internal.handlers.PropertiesFileConfigurationHandler;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
@@ -32,13 +36,22 @@ public final class Activator implements BundleActivator
 {
 
     private static final Log LOGGER = LogFactory.getLog( Activator.class );
-    private static final String SERVICE_NAME = IConfigurationFileHandler.class.getName();
+    private static final String JOURNAL_FILE_NAME = "registration.journal";
+    private static final String SNAPSHOT_BASELINE_FILE_NAME = "snapshot.baseline";
+    private static final String[] SERVICE_NAMES =
+        {
+            IConfigurationFileHandler.class.getName(), IConfigurationResourceHandler.class.getName()
+        };
 
     private ServiceTracker m_configTracker;
     private ConfigurationFileHandlerServiceTracker m_configFileTracker;
     private ServiceRegistration m_propertyFileHandlerRegistration;
+    private ServiceRegistration m_jsonFileHandlerRegistration;
     private ConfigurationAdminFacade m_configAdminFacade;
     private ServiceRegistration m_configUpdaterRegistration;
+    private ServiceRegistration m_commandRegistration;
+    private ConfigurationReadiness m_readiness;
+    private ConfigurationLoader m_loader;
 
     public void start( final BundleContext context )
         throws Exception
@@ -51,7 +64,9 @@ public final class Activator implements BundleActivator
         }
 
         PropertiesFileConfigurationHandler handler = new PropertiesFileConfigurationHandler();
-        m_propertyFileHandlerRegistration = context.registerService( Activator.SERVICE_NAME, handler, new Hashtable() );
+        m_propertyFileHandlerRegistration = context.registerService( Activator.SERVICE_NAMES, handler, new Hashtable() );
+        JsonFileConfigurationHandler jsonHandler = new JsonFileConfigurationHandler();
+        m_jsonFileHandlerRegistration = context.registerService( Activator.SERVICE_NAMES, jsonHandler, new Hashtable() );
         m_configAdminFacade = new ConfigurationAdminFacade( new ConfigurationAdminFacade.PropertyResolver()
         {
 
@@ -67,7 +82,39 @@ public final class Activator implements BundleActivator
             }
         );
 
-        m_configTracker = new ConfigAdminServiceTracker( context, m_configAdminFacade );
+        File journalFile = context.getDataFile( JOURNAL_FILE_NAME );
+        if( journalFile != null )
+        {
+            try
+            {
+                m_configAdminFacade.setJournal( new RegistrationJournal( journalFile ) );
+            }
+            catch( IOException e )
+            {
+                LOGGER.warn( "Registration journal [" + journalFile + "] is not available.", e );
+            }
+        }
+
+        File baselineFile = context.getDataFile( SNAPSHOT_BASELINE_FILE_NAME );
+        if( baselineFile != null )
+        {
+            try
+            {
+                m_configAdminFacade.setSnapshotBaseline( baselineFile );
+            }
+            catch( IOException e )
+            {
+                LOGGER.warn( "Snapshot baseline [" + baselineFile + "] is not available.", e );
+            }
+        }
+
+        m_readiness = new ConfigurationReadiness( context, m_configAdminFacade );
+        m_configAdminFacade.setLoadListener( m_readiness );
+
+        m_loader = new ConfigurationLoader( m_configAdminFacade );
+        m_configAdminFacade.setLoader( m_loader );
+
+        m_configTracker = new ConfigAdminServiceTracker( context, m_configAdminFacade, m_loader );
         m_configTracker.open();
 
         m_configFileTracker = new ConfigurationFileHandlerServiceTracker( context, m_configAdminFacade );
@@ -76,6 +123,15 @@ public final class Activator implements BundleActivator
         ConfigurationUpdater configurationUpdater = new ConfigurationUpdater( this.m_configAdminFacade );
         this.m_configUpdaterRegistration = context.registerService( IConfigurationUpdater.class.getName(),
             configurationUpdater, new Hashtable() );
+
+        try
+        {
+            m_commandRegistration = ConfigurationCommand.register( context, m_configAdminFacade );
+        }
+        catch( NoClassDefFoundError e )
+        {
+            LOGGER.info( "Shell service is not available, [confman] command is not registered." );
+        }
     }
 
     public void stop( BundleContext context )
@@ -88,18 +144,36 @@ public final class Activator implements BundleActivator
             LOGGER.debug( "Stopping [" + symbolicName + "]" );
         }
 
+        // Cancel a running load before the handlers and the configuration admin service go away
+        m_configAdminFacade.setLoader( null );
+        m_loader.close();
+        m_loader = null;
+
         m_propertyFileHandlerRegistration.unregister();
         m_propertyFileHandlerRegistration = null;
 
+        m_jsonFileHandlerRegistration.unregister();
+        m_jsonFileHandlerRegistration = null;
+
         m_configUpdaterRegistration.unregister();
         m_configUpdaterRegistration = null;
 
+        if( m_commandRegistration != null )
+        {
+            m_commandRegistration.unregister();
+            m_commandRegistration = null;
+        }
+
         m_configFileTracker.close();
         m_configFileTracker = null;
 
         m_configTracker.close();
         m_configTracker = null;
 
+        m_configAdminFacade.setLoadListener( null );
+        m_readiness.close();
+        m_readiness = null;
+
         m_configAdminFacade.dispose();
         m_configAdminFacade = null;
     }
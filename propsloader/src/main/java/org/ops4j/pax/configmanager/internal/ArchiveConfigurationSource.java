@@ -0,0 +1,262 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ops4j.lang.NullArgumentException;
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * {@code ArchiveConfigurationSource} reads configuration files straight out of a zip or jar archive without extracting
+ * it. The {@code factories} and {@code services} directories are recognized at the root of the archive or within one
+ * root folder, so both {@code services/my.pid.properties} and {@code configurations/services/my.pid.properties} are
+ * loaded, but not {@code lib/x/services/my.pid.properties}.
+ */
+final class ArchiveConfigurationSource
+    implements ConfigurationSource
+{
+
+    private static final Log LOGGER = LogFactory.getLog( ArchiveConfigurationSource.class );
+
+    private final File m_archiveFile;
+    private final ZipFile m_archive;
+    private List<String> m_roots;
+
+    /**
+     * @param archiveFile The archive. This argument must not be {@code null}.
+     *
+     * @throws IOException Thrown if the archive can not be opened.
+     */
+    ArchiveConfigurationSource( File archiveFile )
+        throws IOException
+    {
+        NullArgumentException.validateNotNull( archiveFile, "archiveFile" );
+        m_archiveFile = archiveFile;
+        m_archive = new ZipFile( archiveFile );
+    }
+
+    /**
+     * Returns {@code true} if the specified {@code file} looks like a configuration archive.
+     *
+     * @param file The file. This argument must not be {@code null}.
+     *
+     * @return A {@code boolean} indicator whether the {@code file} is an archive.
+     */
+    static boolean isArchive( File file )
+    {
+        String name = file.getName().toLowerCase();
+        return file.isFile() && ( name.endsWith( ".zip" ) || name.endsWith( ".jar" ) );
+    }
+
+    public final String getLocation()
+    {
+        return m_archiveFile.getAbsolutePath();
+    }
+
+    public final void visit( boolean isFactory, Visitor visitor )
+        throws IOException, InvalidSyntaxException
+    {
+        String directoryName = getDirectoryName( isFactory );
+        for( Enumeration<? extends ZipEntry> entries = m_archive.entries(); entries.hasMoreElements(); )
+        {
+            ZipEntry zipEntry = entries.nextElement();
+            String name = getFileName( zipEntry, directoryName );
+            if( name != null && !visitor.visit( new ArchiveEntry( zipEntry, name, isFactory ) ) )
+            {
+                return;
+            }
+        }
+    }
+
+    public final ConfigurationEntry getEntry( String path )
+    {
+        NullArgumentException.validateNotNull( path, "path" );
+
+        for( boolean isFactory : new boolean[]{ true, false } )
+        {
+            String directoryName = getDirectoryName( isFactory );
+            String name = path.substring( path.indexOf( '/' ) + 1 );
+            if( !path.startsWith( directoryName + "/" ) || name.length() == 0 || name.indexOf( '/' ) >= 0 )
+            {
+                continue;
+            }
+            for( String root : getRoots() )
+            {
+                ZipEntry zipEntry = m_archive.getEntry( root + path );
+                if( zipEntry != null && !zipEntry.isDirectory() )
+                {
+                    return new ArchiveEntry( zipEntry, name, isFactory );
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns {@code true} if the archive carries a {@link ConfigurationAdminFacade#CHANGESET_MARKER} next to its
+     * {@code factories} and {@code services} directories, e.g. {@code configurations/changeset}.
+     */
+    public final boolean isChangeSet()
+    {
+        if( m_archive.getEntry( ConfigurationAdminFacade.CHANGESET_MARKER ) != null )
+        {
+            return true;
+        }
+        for( String root : getRoots() )
+        {
+            if( m_archive.getEntry( root + ConfigurationAdminFacade.CHANGESET_MARKER ) != null )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getDirectoryName( boolean isFactory )
+    {
+        if( isFactory )
+        {
+            return ConfigurationAdminFacade.DIRECTORY_NAME_FACTORIES;
+        }
+        return ConfigurationAdminFacade.DIRECTORY_NAME_SERVICES;
+    }
+
+    /**
+     * Returns the file name of {@code zipEntry} if it is a file directly within a directory named
+     * {@code directoryName} at the root of the archive or within one root folder, {@code null} otherwise.
+     */
+    private static String getFileName( ZipEntry zipEntry, String directoryName )
+    {
+        if( zipEntry.isDirectory() )
+        {
+            return null;
+        }
+
+        String entryName = zipEntry.getName();
+        int nameStart = entryName.lastIndexOf( '/' ) + 1;
+        if( nameStart == entryName.length() || getDirectoryStart( entryName, directoryName ) < 0 )
+        {
+            return null;
+        }
+        return entryName.substring( nameStart );
+    }
+
+    /**
+     * Returns the index of the directory named {@code directoryName} that contains the file {@code entryName}, if the
+     * directory is at the root of the archive or within one root folder, {@code -1} otherwise.
+     */
+    private static int getDirectoryStart( String entryName, String directoryName )
+    {
+        int nameStart = entryName.lastIndexOf( '/' ) + 1;
+        if( nameStart == 0 )
+        {
+            return -1;
+        }
+
+        int directoryStart = entryName.lastIndexOf( '/', nameStart - 2 ) + 1;
+        if( !entryName.regionMatches( directoryStart, directoryName, 0, directoryName.length() )
+            || nameStart - 1 - directoryStart != directoryName.length() )
+        {
+            return -1;
+        }
+        if( directoryStart > 0 && entryName.lastIndexOf( '/', directoryStart - 2 ) >= 0 )
+        {
+            return -1;
+        }
+        return directoryStart;
+    }
+
+    /**
+     * Returns the folders the {@code factories} and {@code services} directories were found in, {@code ""} for the
+     * root of the archive. The archive is scanned once.
+     */
+    private synchronized List<String> getRoots()
+    {
+        if( m_roots == null )
+        {
+            m_roots = new ArrayList<String>();
+            for( Enumeration<? extends ZipEntry> entries = m_archive.entries(); entries.hasMoreElements(); )
+            {
+                String entryName = entries.nextElement().getName();
+                for( boolean isFactory : new boolean[]{ true, false } )
+                {
+                    int directoryStart = getDirectoryStart( entryName, getDirectoryName( isFactory ) );
+                    if( directoryStart >= 0 && !m_roots.contains( entryName.substring( 0, directoryStart ) ) )
+                    {
+                        m_roots.add( entryName.substring( 0, directoryStart ) );
+                    }
+                }
+            }
+        }
+        return m_roots;
+    }
+
+    public final void close()
+    {
+        try
+        {
+            m_archive.close();
+        }
+        catch( IOException e )
+        {
+            LOGGER.warn( "Failed to close configuration archive [" + m_archiveFile + "].", e );
+        }
+    }
+
+    /**
+     * A configuration file within the archive.
+     */
+    private final class ArchiveEntry extends ConfigurationEntry
+    {
+
+        private final ZipEntry m_zipEntry;
+
+        private ArchiveEntry( ZipEntry zipEntry, String name, boolean isFactory )
+        {
+            super( name, isFactory, zipEntry.getSize(), Math.max( 0, zipEntry.getTime() ) );
+            m_zipEntry = zipEntry;
+        }
+
+        @Override
+        final ConfigurationSource getSource()
+        {
+            return ArchiveConfigurationSource.this;
+        }
+
+        @Override
+        final InputStream openStream()
+            throws IOException
+        {
+            return m_archive.getInputStream( m_zipEntry );
+        }
+
+        @Override
+        public final String toString()
+        {
+            return m_archiveFile.getName() + "!/" + m_zipEntry.getName();
+        }
+    }
+}
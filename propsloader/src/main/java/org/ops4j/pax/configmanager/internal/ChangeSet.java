@@ -0,0 +1,232 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ops4j.lang.NullArgumentException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+/**
+ * {@code ChangeSet} collects the configurations of a change set while the configuration area is parsed, so that they
+ * are only pushed once every file of the set has been read.
+ * <p>
+ * Before a configuration is pushed, the dictionaries it is about to replace are captured. If a later configuration of
+ * the set fails, {@link #rollback()} restores the captured dictionaries and deletes the configurations the set created.
+ */
+final class ChangeSet
+{
+
+    private static final Log LOGGER = LogFactory.getLog( ChangeSet.class );
+
+    private final ConfigurationAdmin m_configAdminService;
+    private final List<Member> m_members;
+    private final List<Undo> m_undo;
+
+    ChangeSet( ConfigurationAdmin configAdminService )
+    {
+        NullArgumentException.validateNotNull( configAdminService, "configAdminService" );
+
+        m_configAdminService = configAdminService;
+        m_members = new ArrayList<Member>();
+        m_undo = new ArrayList<Undo>();
+    }
+
+    /**
+     * Adds a loaded configuration to this change set.
+     *
+     * @param configuration The configuration. This argument must not be {@code null}.
+     * @param path          The path of the entry the configuration was loaded from.
+     * @param checksum      The checksum of the entry, {@code -1} if not known.
+     */
+    final void add( PendingConfiguration configuration, String path, long checksum )
+    {
+        NullArgumentException.validateNotNull( configuration, "configuration" );
+
+        m_members.add( new Member( configuration, path, checksum ) );
+    }
+
+    /**
+     * @return the configurations of this change set, in the order they were added.
+     */
+    final List<PendingConfiguration> getConfigurations()
+    {
+        List<PendingConfiguration> configurations = new ArrayList<PendingConfiguration>();
+        for( Member member : m_members )
+        {
+            configurations.add( member.m_configuration );
+        }
+        return configurations;
+    }
+
+    /**
+     * Records the checksums of the entries of this change set in {@code delta}, once the set has been applied.
+     *
+     * @param delta The snapshot delta, {@code null} if the configuration is not loaded from a snapshot.
+     */
+    final void recordApplied( SnapshotDelta delta )
+    {
+        if( delta == null )
+        {
+            return;
+        }
+
+        for( Member member : m_members )
+        {
+            if( member.m_checksum != -1 )
+            {
+                delta.record( member.m_path, member.m_checksum );
+            }
+        }
+    }
+
+    /**
+     * Captures the dictionaries the specified {@code configuration} is about to replace. Must be called before the
+     * configuration is pushed.
+     *
+     * @param configuration The configuration. This argument must not be {@code null}.
+     *
+     * @throws IOException            Thrown if the configuration admin service fails to list configurations.
+     * @throws InvalidSyntaxException Thrown if the service pid results in an invalid filter.
+     */
+    final void capture( PendingConfiguration configuration )
+        throws IOException, InvalidSyntaxException
+    {
+        NullArgumentException.validateNotNull( configuration, "configuration" );
+
+        // Factory instances are matched by factory pid, since instances created by the set get generated pids
+        String key = configuration.isFactory() ? ConfigurationAdmin.SERVICE_FACTORYPID : Constants.SERVICE_PID;
+        String filter = LdapFilter.equal( key, configuration.getServicePid() );
+
+        Map<String, Dictionary> previous = new HashMap<String, Dictionary>();
+        Configuration[] existing = m_configAdminService.listConfigurations( filter );
+        if( existing != null )
+        {
+            for( Configuration conf : existing )
+            {
+                previous.put( conf.getPid(), copy( conf.getProperties() ) );
+            }
+        }
+        m_undo.add( new Undo( filter, previous ) );
+    }
+
+    /**
+     * Restores the dictionaries captured by {@link #capture(PendingConfiguration)}, most recent first, and deletes the
+     * configurations that did not exist before. Failures are logged and do not stop the rollback.
+     *
+     * @return the number of configurations restored or deleted.
+     */
+    final int rollback()
+    {
+        int rolledBack = 0;
+        for( int i = m_undo.size() - 1; i >= 0; i-- )
+        {
+            Undo undo = m_undo.get( i );
+            try
+            {
+                Configuration[] current = m_configAdminService.listConfigurations( undo.m_filter );
+                if( current == null )
+                {
+                    continue;
+                }
+
+                for( Configuration conf : current )
+                {
+                    Dictionary previous = undo.m_previous.get( conf.getPid() );
+                    if( previous == null )
+                    {
+                        conf.delete();
+                    }
+                    else
+                    {
+                        conf.update( previous );
+                    }
+                    rolledBack++;
+                }
+            }
+            catch( IOException e )
+            {
+                LOGGER.error( "Failed to roll back configurations matching [" + undo.m_filter + "].", e );
+            }
+            catch( InvalidSyntaxException e )
+            {
+                LOGGER.error( "Failed to roll back configurations matching [" + undo.m_filter + "].", e );
+            }
+        }
+        m_undo.clear();
+        return rolledBack;
+    }
+
+    /**
+     * @return a copy of {@code dictionary}, {@code null} if it is {@code null}, so that a configuration without
+     *         properties is deleted rather than updated with an empty dictionary on rollback.
+     */
+    private static Dictionary copy( Dictionary dictionary )
+    {
+        if( dictionary == null )
+        {
+            return null;
+        }
+
+        Hashtable<Object, Object> copy = new Hashtable<Object, Object>();
+        for( Enumeration e = dictionary.keys(); e.hasMoreElements(); )
+        {
+            Object key = e.nextElement();
+            copy.put( key, dictionary.get( key ) );
+        }
+        return copy;
+    }
+
+    private static final class Member
+    {
+
+        private final PendingConfiguration m_configuration;
+        private final String m_path;
+        private final long m_checksum;
+
+        private Member( PendingConfiguration configuration, String path, long checksum )
+        {
+            m_configuration = configuration;
+            m_path = path;
+            m_checksum = checksum;
+        }
+    }
+
+    private static final class Undo
+    {
+
+        private final String m_filter;
+        private final Map<String, Dictionary> m_previous;
+
+        private Undo( String filter, Map<String, Dictionary> previous )
+        {
+            m_filter = filter;
+            m_previous = previous;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ops4j.lang.NullArgumentException;
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * {@code CompositeConfigurationSource} visits several configuration sources in order, e.g. all configuration archives
+ * within a directory. Entries of later sources are pushed after, and therefore override, entries of earlier sources
+ * with the same service pid.
+ */
+final class CompositeConfigurationSource
+    implements ConfigurationSource
+{
+
+    private final String m_location;
+    private final List<ConfigurationSource> m_sources;
+
+    CompositeConfigurationSource( String location, List<ConfigurationSource> sources )
+    {
+        NullArgumentException.validateNotNull( location, "location" );
+        NullArgumentException.validateNotNull( sources, "sources" );
+
+        m_location = location;
+        m_sources = new ArrayList<ConfigurationSource>( sources );
+    }
+
+    public final String getLocation()
+    {
+        return m_location;
+    }
+
+    public final void visit( boolean isFactory, final Visitor visitor )
+        throws IOException, InvalidSyntaxException
+    {
+        final boolean[] stopped = new boolean[1];
+        for( ConfigurationSource source : m_sources )
+        {
+            source.visit( isFactory, new Visitor()
+            {
+
+                public boolean visit( ConfigurationEntry entry )
+                    throws IOException, InvalidSyntaxException
+                {
+                    stopped[ 0 ] = !visitor.visit( entry );
+                    return !stopped[ 0 ];
+                }
+            }
+            );
+
+            if( stopped[ 0 ] )
+            {
+                return;
+            }
+        }
+    }
+
+    public final ConfigurationEntry getEntry( String path )
+        throws IOException
+    {
+        // The last source wins, just as it does when pushing
+        for( int i = m_sources.size() - 1; i >= 0; i-- )
+        {
+            ConfigurationEntry entry = m_sources.get( i ).getEntry( path );
+            if( entry != null )
+            {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    public final boolean isChangeSet()
+    {
+        for( ConfigurationSource source : m_sources )
+        {
+            if( source.isChangeSet() )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public final void close()
+    {
+        for( ConfigurationSource source : m_sources )
+        {
+            source.close();
+        }
+    }
+}
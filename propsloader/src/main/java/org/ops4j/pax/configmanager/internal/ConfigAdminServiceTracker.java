@@ -15,16 +15,25 @@
  */
 package org.ops4j.pax.configmanager.internal;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.ops4j.lang.NullArgumentException;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.cm.ConfigurationAdmin;
 import org.osgi.util.tracker.ServiceTracker;
 
 /**
  * {@code ConfigAdminServiceTracker} trackes configuration admin service.
+ * <p>
+ * If more than one configuration admin service is registered, the one with the highest service ranking, and of those
+ * the one registered first, is used. When it changes, the facade is switched to the new service before the old one is
+ * released, and only the configurations the new service is missing are pushed again. Loading runs on the
+ * {@link ConfigurationLoader} thread, not on the framework event thread.
  *
  * @author Edward Yakop
  * @author Makas Tzavellas
@@ -36,37 +45,119 @@ final class ConfigAdminServiceTracker extends ServiceTracker
     private static final Log mLogger = LogFactory.getLog( ConfigAdminServiceTracker.class );
 
     private ConfigurationAdminFacade mFacade;
+    private final ConfigurationLoader mLoader;
+    private final Map<ServiceReference, ConfigurationAdmin> mServices;
+    private ServiceReference mCurrent;
 
-    ConfigAdminServiceTracker( BundleContext bundleContext, ConfigurationAdminFacade facade )
+    ConfigAdminServiceTracker( BundleContext bundleContext, ConfigurationAdminFacade facade,
+        ConfigurationLoader loader )
     {
         super( bundleContext, CONFIG_ADMIN_SERVICE_NAME, null );
         NullArgumentException.validateNotNull( facade, "facade" );
+        NullArgumentException.validateNotNull( loader, "loader" );
         mFacade = facade;
+        mLoader = loader;
+        mServices = new HashMap<ServiceReference, ConfigurationAdmin>();
     }
 
     @Override
     public final Object addingService( ServiceReference serviceReference )
     {
         ConfigurationAdmin service = (ConfigurationAdmin) super.addingService( serviceReference );
-
-        mFacade.setConfigurationAdminService( service );
-
-        try
+        if( service == null )
         {
-            mFacade.registerConfigurations( null, false );
+            return null;
         }
-        catch( Throwable e )
+
+        synchronized( mServices )
         {
-            mLogger.error( "Can't load configuration", e );
+            mServices.put( serviceReference, service );
         }
+        select();
 
         return service;
     }
 
+    @Override
+    public void modifiedService( ServiceReference serviceReference, Object service )
+    {
+        // The service ranking may have changed
+        select();
+    }
+
     @Override
     public void removedService( ServiceReference serviceReference, Object service )
     {
-        mFacade.setConfigurationAdminService( null );
+        synchronized( mServices )
+        {
+            mServices.remove( serviceReference );
+        }
+        select();
         context.ungetService( serviceReference );
     }
+
+    /**
+     * Switches the facade to the best ranked configuration admin service, if it changed, and requests it to be brought
+     * up to date.
+     */
+    private void select()
+    {
+        synchronized( mServices )
+        {
+            ServiceReference best = null;
+            for( ServiceReference reference : mServices.keySet() )
+            {
+                if( best == null || compare( reference, best ) > 0 )
+                {
+                    best = reference;
+                }
+            }
+            if( best == mCurrent )
+            {
+                return;
+            }
+
+            mCurrent = best;
+            mFacade.setConfigurationAdminService( best == null ? null : mServices.get( best ) );
+            if( best == null )
+            {
+                mLogger.info( "No configuration admin service available." );
+                return;
+            }
+            mLogger.info( "Using configuration admin service [" + best.getProperty( Constants.SERVICE_ID ) + "]." );
+        }
+
+        mLoader.restore();
+    }
+
+    /**
+     * Orders service references by service ranking, and by service id if the ranking is equal.
+     *
+     * @return A positive number if {@code reference} is preferred to {@code other}.
+     */
+    private static int compare( ServiceReference reference, ServiceReference other )
+    {
+        int ranking = getRanking( reference );
+        int otherRanking = getRanking( other );
+        if( ranking != otherRanking )
+        {
+            return ranking > otherRanking ? 1 : -1;
+        }
+
+        long id = getId( reference );
+        long otherId = getId( other );
+        return id == otherId ? 0 : ( id < otherId ? 1 : -1 );
+    }
+
+    private static int getRanking( ServiceReference reference )
+    {
+        Object ranking = reference.getProperty( Constants.SERVICE_RANKING );
+        return ranking instanceof Integer ? (Integer) ranking : 0;
+    }
+
+    private static long getId( ServiceReference reference )
+    {
+        Object id = reference.getProperty( Constants.SERVICE_ID );
+        return id instanceof Long ? (Long) id : Long.MAX_VALUE;
+    }
 }
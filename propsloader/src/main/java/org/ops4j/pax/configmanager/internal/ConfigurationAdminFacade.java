@@ -16,20 +16,29 @@
 package org.ops4j.pax.configmanager.internal;
 
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileFilter;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.ops4j.lang.NullArgumentException;
+import org.ops4j.pax.configmanager.ConfigurationDiff;
 import org.ops4j.pax.configmanager.IConfigurationFileHandler;
+import org.ops4j.pax.configmanager.IConfigurationResourceHandler;
 import org.osgi.framework.Constants;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.service.cm.Configuration;
@@ -51,12 +60,88 @@ final class ConfigurationAdminFacade
     public static final String DEFAULT_CONFIGURATION_LOCATION = "configurations";
 
     /**
-     * System property to set where the ConfigurationAdminFacade should load the configuration files from.
+     * Name of the marker file that turns a configuration directory or archive into a change set. All configuration of
+     * a change set is parsed before any of it is pushed, and is rolled back to the previous dictionaries if any update
+     * fails. To deploy a change set, prepare a staging directory next to the configuration directory, add the marker
+     * and rename it over the configuration directory.
+     */
+    public static final String CHANGESET_MARKER = "changeset";
+
+    /**
+     * System property to set where the ConfigurationAdminFacade should load the configuration files from. This is
+     * either a directory with {@code factories} and {@code services} sub directories, a zip or jar archive containing
+     * them, or a directory of such archives. It may also be a configuration snapshot, or a configuration store
+     * directory of {@code configuration-<version>.snapshot} files, in which case the latest snapshot is loaded.
      */
     public static final String BUNDLES_CONFIGURATION_LOCATION = "bundles.configuration.location";
-    private final List<IConfigurationFileHandler> m_handlers;
+
+    /**
+     * System property to set the maximum number of configuration updates pushed per second. Unlimited if not set.
+     */
+    public static final String BUNDLES_CONFIGURATION_UPDATE_RATE = "bundles.configuration.update.rate";
+
+    /**
+     * System property to set the number of configuration updates that may be pushed back to back before
+     * {@link #BUNDLES_CONFIGURATION_UPDATE_RATE} applies. Defaults to one second worth of updates.
+     */
+    public static final String BUNDLES_CONFIGURATION_UPDATE_BURST = "bundles.configuration.update.burst";
+
+    /**
+     * System property to set the maximum number of configuration updates in flight at the same time. Unlimited if not
+     * set. Loads triggered by the bundle itself run on one loader thread, so this only limits concurrent callers of
+     * {@link org.ops4j.pax.configmanager.IConfigurationUpdater}.
+     */
+    public static final String BUNDLES_CONFIGURATION_UPDATE_MAX_IN_FLIGHT = "bundles.configuration.update.maxInFlight";
+
+    /**
+     * System property to set the path of the {@code JCEKS} keystore holding the AES key that decrypts configuration
+     * values of the form {@code ENC(...)}.
+     */
+    public static final String BUNDLES_CONFIGURATION_KEYSTORE = "bundles.configuration.keystore";
+
+    /**
+     * System property to set the password of the keystore and of the key.
+     */
+    public static final String BUNDLES_CONFIGURATION_KEYSTORE_PASSWORD = "bundles.configuration.keystore.password";
+
+    /**
+     * System property to set the alias of the key in the keystore. Defaults to {@code confman}.
+     */
+    public static final String BUNDLES_CONFIGURATION_KEYSTORE_ALIAS = "bundles.configuration.keystore.alias";
+
+    /**
+     * System property to set the number of older versions kept per service pid for rollback. Defaults to
+     * {@value ConfigurationHistory#DEFAULT_SIZE}; {@code 0} disables rollback.
+     */
+    public static final String BUNDLES_CONFIGURATION_HISTORY_SIZE = "bundles.configuration.history.size";
+
+    /**
+     * System property to set the role of this node, matched by the {@code role} condition of conditional
+     * configuration files such as {@code my.pid@role=web.properties}. See {@link ConfigurationConditions}.
+     */
+    public static final String BUNDLES_CONFIGURATION_ROLE = "bundles.configuration.role";
+
+    /**
+     * System property to set the interval in seconds at which a configuration store directory is checked for a newer
+     * snapshot. Defaults to {@value #DEFAULT_SNAPSHOT_INTERVAL}; {@code 0} disables the check.
+     */
+    public static final String BUNDLES_CONFIGURATION_SNAPSHOT_INTERVAL = "bundles.configuration.snapshot.interval";
+
+    static final long DEFAULT_SNAPSHOT_INTERVAL = 30;
+
+    private final List<IConfigurationResourceHandler> m_handlers;
     private ConfigurationAdmin m_configAdminService;
-    private final ManagedFactoryPropertiesProcessor m_processor = new ManagedFactoryPropertiesProcessor();
+    private RegistrationJournal m_journal;
+    private LoadListener m_loadListener;
+    private ConfigurationLoader m_loader;
+    private final UpdateThrottle m_throttle;
+    private final ManagedFactoryPropertiesProcessor m_processor;
+    private final ConfigurationIndex m_index;
+    private final ConfigurationReader m_reader;
+    private final SnapshotDelta m_snapshotDelta;
+    private final Quarantine m_quarantine;
+    private final SecretCodec m_secrets;
+    private final ConfigurationHistory m_history;
     /**
      * Property resolver used to resolve properies.
      */
@@ -65,7 +150,15 @@ final class ConfigurationAdminFacade
     public ConfigurationAdminFacade( PropertyResolver propertyResolver )
     {
         m_propertyResolver = propertyResolver;
-        m_handlers = new ArrayList<IConfigurationFileHandler>();
+        m_handlers = new ArrayList<IConfigurationResourceHandler>();
+        m_throttle = UpdateThrottle.create( propertyResolver );
+        m_processor = new ManagedFactoryPropertiesProcessor( m_throttle );
+        m_index = new ConfigurationIndex();
+        m_reader = new ConfigurationReader();
+        m_snapshotDelta = new SnapshotDelta();
+        m_quarantine = new Quarantine();
+        m_secrets = SecretCodec.create( propertyResolver );
+        m_history = ConfigurationHistory.create( propertyResolver );
     }
 
 
@@ -78,288 +171,1298 @@ final class ConfigurationAdminFacade
      * @throws IllegalArgumentException Thrown if the specified {@code handler} is {@code null}.
      * @since 1.0.0
      */
-    final void addFileHandler( IConfigurationFileHandler handler )
-    throws IllegalArgumentException
+    final void addFileHandler( IConfigurationFileHandler handler )
+    throws IllegalArgumentException
+    {
+        NullArgumentException.validateNotNull( handler, "handler" );
+
+        addFileHandler( new FileHandlerAdapter( handler ) );
+    }
+
+
+    /**
+     * Add the specified {@code handler} to this {@code ConfigurationAdminFacade}. The handler will be used to handle
+     * configuration resources during {@code registerConfigurations}.
+     * 
+     * @param handler The resource handler. This argument must not be {@code null}.
+     * 
+     * @throws IllegalArgumentException Thrown if the specified {@code handler} is {@code null}.
+     */
+    final void addFileHandler( IConfigurationResourceHandler handler )
+    throws IllegalArgumentException
+    {
+        NullArgumentException.validateNotNull( handler, "handler" );
+
+        synchronized( m_handlers )
+        {
+            m_handlers.add( 0, handler );
+        }
+
+        // Reload all configurations just in case if this is added later
+        // Only do this though if the config admin service is available. If
+        // the config admin service is not currently available, the registerConfigurations
+        // call is delayed until the config admin service is available
+        ConfigurationLoader loader;
+        synchronized( this )
+        {
+            if( m_configAdminService == null )
+            {
+                return;
+            }
+            loader = m_loader;
+        }
+        if( loader != null )
+        {
+            loader.reload();
+            return;
+        }
+        try
+        {
+            registerConfigurations(null, false);
+        } catch( IOException e )
+        {
+            String msg = "IOException by either getting the configuration admin or loading the configuration file.";
+            LOGGER.error( msg, e );
+        } catch( InvalidSyntaxException e )
+        {
+            LOGGER.error( "Invalid syntax. This should not happened.", e );
+        }
+    }
+
+
+    /**
+     * Registers configuration for OSGi Managed services.
+     * 
+     * @param configuration if null then all configuration found will be registered.
+     * @param overwrite     A {@code boolean} indicator to overwrite the configuration
+     * 
+     * @throws IOException            Thrown if there is an IO problem during loading of {@code configuration}.
+     * @throws InvalidSyntaxException Thrown if there is an invalid exception during retrieval of configurations.
+     * @throws IllegalStateException  Thrown if the configuration admin service is not available.
+     */
+    final void registerConfigurations( String configuration, boolean overwrite )
+    throws IOException, InvalidSyntaxException, IllegalStateException
+    {
+        registerConfigurations( configuration, overwrite, false );
+    }
+
+    /**
+     * Registers configuration for OSGi Managed services, or with {@code dryRun} only computes what registering would
+     * change. A dry run does not create or update any configuration.
+     * 
+     * @param configuration if null then all configuration found will be registered.
+     * @param overwrite     A {@code boolean} indicator to overwrite the configuration
+     * @param dryRun        A {@code boolean} indicator to only compare the configuration
+     * 
+     * @return The changes the configuration would make if {@code dryRun} is {@code true}, {@code null} otherwise.
+     * 
+     * @throws IOException            Thrown if there is an IO problem during loading of {@code configuration}.
+     * @throws InvalidSyntaxException Thrown if there is an invalid exception during retrieval of configurations.
+     * @throws IllegalStateException  Thrown if the configuration admin service is not available.
+     */
+    final ConfigurationDiff registerConfigurations( String configuration, boolean overwrite, boolean dryRun )
+    throws IOException, InvalidSyntaxException, IllegalStateException
+    {
+        long start = System.currentTimeMillis();
+        ConfigurationAdmin configAdminService = getConfigurationAdminService();
+
+        ConfigurationSource source = openConfigurationSource();
+        if( source == null )
+        {
+            // Nothing to load is a completed load too, so that readiness does not wait for a missing area
+            LoadListener listener = getLoadListener();
+            if( listener != null && !dryRun && configuration == null )
+            {
+                listener.loaded( 0, 0, 0, System.currentTimeMillis() - start );
+            }
+            return dryRun ? new ConfigurationDiff() : null;
+        }
+
+        Pass pass = new Pass( configuration, new ConfigurationConditions( m_propertyResolver ) );
+        boolean completed = false;
+        boolean cancelled = false;
+        try
+        {
+            Configuration[] existingConfigurations = configAdminService.listConfigurations( null );
+
+            if( existingConfigurations != null )
+            {
+                for( Configuration existingConfig : existingConfigurations )
+                {
+                    if( !overwrite )
+                    {
+                        pass.m_configCache.add( existingConfig.getPid() );
+                    }
+                    pass.m_existingPids.add( existingConfig.getPid() );
+                    if( existingConfig.getFactoryPid() != null )
+                    {
+                        pass.m_existingPids.add( existingConfig.getFactoryPid() );
+                    }
+                }
+            }
+
+            if( dryRun )
+            {
+                pass.m_differ = new ConfigurationDiffer( existingConfigurations, m_index, m_processor );
+            }
+            else
+            {
+                pass.m_journal = getJournal();
+            }
+
+            if( !dryRun && source instanceof SnapshotConfigurationSource )
+            {
+                pass.m_delta = m_snapshotDelta;
+                LOGGER.info( "Applying configuration snapshot version [" + ( (SnapshotConfigurationSource) source )
+                    .getVersion() + "] over version [" + m_snapshotDelta.getVersion() + "]." );
+            }
+
+            if( !dryRun && source.isChangeSet() )
+            {
+                pass.m_changeSet = new ChangeSet( configAdminService );
+            }
+
+            // Create configuration for ManagedServiceFactory
+            createConfiguration( source, true, pass );
+            // Create configuration for ManagedService
+            createConfiguration( source, false, pass );
+
+            if( pass.m_differ != null )
+            {
+                return pass.m_differ.finish( configuration );
+            }
+            if( pass.m_changeSet != null )
+            {
+                apply( pass.m_changeSet, pass.m_delta, pass.m_journal );
+                pass.m_pushed += pass.m_changeSet.getConfigurations().size();
+            }
+            if( pass.m_journal != null )
+            {
+                pass.m_journal.sync();
+            }
+            if( pass.m_delta != null && configuration == null )
+            {
+                pass.m_delta.completed( ( (SnapshotConfigurationSource) source ).getVersion() );
+            }
+
+            completed = true;
+            return null;
+        }
+        catch( InterruptedIOException e )
+        {
+            cancelled = true;
+            throw e;
+        }
+        finally
+        {
+            // A failed load is reported with the load itself counted as a failure; a cancelled one is not reported
+            LoadListener listener = getLoadListener();
+            if( listener != null && !dryRun && configuration == null && !cancelled )
+            {
+                listener.loaded( pass.m_pushed, pass.m_skipped, completed ? pass.m_failed : pass.m_failed + 1,
+                    System.currentTimeMillis() - start );
+            }
+            source.close();
+        }
+    }
+
+    /**
+     * Creates the configurations of the {@code factories} or the {@code services} directory. Conditional files that do
+     * not apply to this node are skipped while listing, before they are read. Of the files that apply to the same
+     * service pid, the one with the most conditions is used, so that a conditional file overrides the plain one. Of
+     * files with as many conditions, the one listed last is used, so that later archives override earlier ones.
+     */
+    private void createConfiguration( ConfigurationSource source, boolean isFactory, final Pass pass )
+    throws IOException, InvalidSyntaxException
+    {
+        final List<IConfigurationResourceHandler> handlers = getHandlers();
+        final Map<String, ConfigurationEntry> selected = new LinkedHashMap<String, ConfigurationEntry>();
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        source.visit( isFactory, new ConfigurationSource.Visitor()
+        {
+
+            public boolean visit( ConfigurationEntry entry )
+                throws InterruptedIOException
+            {
+                checkInterrupted();
+                IConfigurationResourceHandler handler = getHandler( handlers, entry );
+                if( handler == null )
+                {
+                    return true;
+                }
+
+                String name = entry.getName();
+                String stem = getStem( handler, name );
+                if( !pass.m_conditions.matches( stem ) )
+                {
+                    LOGGER.debug( "Configuration [" + entry + "] does not apply to this node." );
+                    return true;
+                }
+
+                String baseName = strip( stem, name );
+                int conditions = ConfigurationConditions.count( stem );
+                ConfigurationEntry other = selected.get( baseName );
+                if( other != null )
+                {
+                    int otherConditions = counts.get( baseName );
+                    if( conditions == otherConditions && other.getSource() == entry.getSource() )
+                    {
+                        LOGGER.warn( "Configurations [" + other + "] and [" + entry + "] both apply to this node, ["
+                            + entry + "] is used." );
+                    }
+                    if( conditions < otherConditions )
+                    {
+                        return true;
+                    }
+                }
+                selected.put( baseName, entry );
+                counts.put( baseName, conditions );
+                return true;
+            }
+        }
+        );
+
+        for( ConfigurationEntry entry : selected.values() )
+        {
+            checkInterrupted();
+            createConfigurationForFile( entry, pass );
+        }
+    }
+
+    /**
+     * Stops a pass of a loader that is being closed.
+     *
+     * @throws InterruptedIOException Thrown if the current thread is interrupted.
+     */
+    /**
+     * @return the first of the {@code handlers} that can handle the specified {@code entry}, {@code null} if none can.
+     */
+    private static IConfigurationResourceHandler getHandler( List<IConfigurationResourceHandler> handlers,
+                                                             ConfigurationEntry entry )
+    {
+        for( IConfigurationResourceHandler handler : handlers )
+        {
+            if( handler.canHandle( entry ) )
+            {
+                return handler;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the specified file {@code name} without the extension of the {@code handler} that reads it, so that the
+     * conditions of the name end where the extension starts.
+     */
+    private static String getStem( IConfigurationResourceHandler handler, String name )
+    {
+        String stem = handler.getServicePID( name );
+        return stem != null && name.startsWith( stem ) ? stem : name;
+    }
+
+    /**
+     * @return the service pid of the specified file {@code name} without its conditions.
+     */
+    private static String getServicePid( IConfigurationResourceHandler handler, String name )
+    {
+        return handler.getServicePID( strip( getStem( handler, name ), name ) );
+    }
+
+    /**
+     * @return the specified file {@code name} without the conditions of its {@code stem}.
+     */
+    private static String strip( String stem, String name )
+    {
+        return ConfigurationConditions.strip( stem ) + name.substring( stem.length() );
+    }
+
+    private static void checkInterrupted()
+        throws InterruptedIOException
+    {
+        if( Thread.currentThread().isInterrupted() )
+        {
+            throw new InterruptedIOException( "Loading configuration was interrupted." );
+        }
+    }
+
+
+    private void createConfigurationForFile( ConfigurationEntry entry, Pass pass )
+    throws IOException, InvalidSyntaxException
+    {
+        List<IConfigurationResourceHandler> handlers = getHandlers();
+
+        // since the configFileName might end with a file type suffix, we have to check
+        // all file handlers
+        for( IConfigurationResourceHandler handler : handlers )
+        {
+            // check if we have the correct file handler for the file
+            if( handler.canHandle( entry ) )
+            {
+                // get the service PID
+                String servicePid = getServicePid( handler, entry.getName() );
+
+                // check if the service is the one that should be configured
+                if( (pass.m_configuration != null) && !servicePid.equals( pass.m_configuration ) )
+                {
+                    return;
+                }
+
+                // check if the service is already configured, unless a newer snapshot changed it or its last push
+                // did not finish
+                long checksum = entry.getChecksum();
+                boolean changed = pass.m_delta != null && checksum != -1
+                    && pass.m_delta.isChanged( entry.getPath(), checksum );
+                boolean unfinished = pass.m_journal != null && pass.m_journal.isUnfinished( servicePid );
+                if( pass.m_configCache.contains( servicePid ) && !changed && !unfinished )
+                {
+                    skipped( servicePid, entry, checksum, pass );
+                    return;
+                }
+
+                // configure the service, only compare it on a dry run, or hold it back until the change set is read
+                PendingConfiguration pending = load( handler, entry );
+                if( pending == null )
+                {
+                    if( pass.m_changeSet != null )
+                    {
+                        throw new IOException( "Configuration [" + entry + "] of change set failed to load."
+                            + " The change set is not applied." );
+                    }
+                    pass.m_failed++;
+                    return;
+                }
+
+                // on a full pass, trust the journal for configurations that were pushed with the same contents
+                String pendingPid = pending.getServicePid();
+                if( pass.m_journal != null && pass.m_configuration == null && pass.m_existingPids.contains( pendingPid )
+                    && pass.m_journal.isCommitted( pendingPid, pending.getFingerprint() ) )
+                {
+                    skipped( pendingPid, entry, checksum, pass );
+                    return;
+                }
+
+                if( pass.m_differ != null )
+                {
+                    pass.m_differ.compare( pending );
+                }
+                else if( pass.m_changeSet != null )
+                {
+                    pass.m_changeSet.add( pending, entry.getPath(), checksum );
+                }
+                else
+                {
+                    if( !push( pending, pass.m_journal ) )
+                    {
+                        pass.m_failed++;
+                        return;
+                    }
+                    pass.m_pushed++;
+                    if( pass.m_delta != null && checksum != -1 )
+                    {
+                        pass.m_delta.record( entry.getPath(), checksum );
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    private void skipped( String servicePid, ConfigurationEntry entry, long checksum, Pass pass )
+    {
+        pass.m_skipped++;
+        if( pass.m_differ == null )
+        {
+            m_index.skipped( servicePid, entry.toString(), entry.isFactory() );
+        }
+        if( pass.m_delta != null && checksum != -1 )
+        {
+            pass.m_delta.record( entry.getPath(), checksum );
+        }
+    }
+
+
+    /**
+     * Handle the extraction of the configuration from the specified {@code entry}. Returns {@code null} if the
+     * {@code handler} can not read the entry.
+     * If a property service.pid exists in the configuration, then that will be used to locate the service instance.
+     * To register the service with a service.pid, do something like
+     * <pre>
+     * Properties filterProp = new Properties();
+     * filterProp.put(Constants.SERVICE_PID, "my.test.service.Interface");
+     * bundleContext.registerService(ManagedService.class.getName(), myServiceInstance, filterProp);
+     * </pre>
+     * in your client code that registeres the managed service.
+     */
+    private PendingConfiguration load( IConfigurationResourceHandler handler, ConfigurationEntry entry )
+    {
+        String servicePid = getServicePid( handler, entry.getName() );
+        long[] sourceFingerprint = new long[1];
+        Properties prop = read( handler, entry, sourceFingerprint );
+        if( prop == null )
+        {
+            return null;
+        }
+
+        // Decrypted values only live in the pushed dictionaries, never in the configuration area or in printed files
+        Properties decrypted;
+        try
+        {
+            decrypted = decrypt( prop );
+        }
+        catch( IOException e )
+        {
+            m_quarantine.failed( entry.toString(), sourceFingerprint[ 0 ], "decryption failed: " + e.getMessage() );
+            return null;
+        }
+
+        // Find out if a service.pid property is included, use it if it does
+        String str = (String) prop.get(Constants.SERVICE_PID);
+        if( str != null )
+        {
+            servicePid = str;
+        }
+
+        return new PendingConfiguration( servicePid, entry.toString(), entry.isFactory(), prop, decrypted,
+            sourceFingerprint[ 0 ] );
+    }
+
+    /**
+     * @return a copy of the specified {@code properties} with their encrypted values decrypted, the {@code properties}
+     *         themselves if none is encrypted.
+     */
+    private Properties decrypt( Properties properties )
+        throws IOException
+    {
+        Properties decrypted = new Properties();
+        decrypted.putAll( properties );
+        return m_secrets.decrypt( decrypted ) == 0 ? properties : decrypted;
+    }
+
+    /**
+     * Reads the specified {@code entry} with {@code handler} and stores the fingerprint of the entry contents in
+     * {@code sourceFingerprint}. Adapted file handlers load files on disk themselves and are fingerprinted by size and
+     * modification time; all other handlers are fed the contents read by the loader.
+     * <p>
+     * Returns {@code null} if the entry fails to load. The failure is quarantined, so that the entry is not parsed
+     * again until it changes, and the rest of the configuration area still loads.
+     */
+    private Properties read( IConfigurationResourceHandler handler, ConfigurationEntry entry, long[] sourceFingerprint )
+    {
+        String path = entry.toString();
+        File file = entry.getFile();
+        boolean adapted = handler instanceof FileHandlerAdapter && file != null;
+
+        ConfigurationReader.Contents contents = null;
+        if( adapted )
+        {
+            sourceFingerprint[ 0 ] = ConfigurationReader.stamp( entry );
+        }
+        else
+        {
+            try
+            {
+                contents = m_reader.read( entry );
+            }
+            catch( IOException e )
+            {
+                m_quarantine.failed( path, ConfigurationReader.stamp( entry ), "read failed: " + e.getMessage() );
+                return null;
+            }
+            sourceFingerprint[ 0 ] = contents.getChecksum();
+        }
+
+        if( m_quarantine.isQuarantined( path, sourceFingerprint[ 0 ] ) )
+        {
+            LOGGER.debug( "Skipping quarantined configuration [" + path + "]" );
+            return null;
+        }
+
+        Properties prop;
+        try
+        {
+            prop = parse( handler, entry, contents );
+        }
+        catch( IOException e )
+        {
+            m_quarantine.failed( path, sourceFingerprint[ 0 ], "parse failed: " + e.getMessage() );
+            return null;
+        }
+        catch( RuntimeException e )
+        {
+            m_quarantine.failed( path, sourceFingerprint[ 0 ], "parse failed: " + e );
+            return null;
+        }
+
+        if( prop == null )
+        {
+            m_quarantine.failed( path, sourceFingerprint[ 0 ], "handler returned no configuration" );
+            return null;
+        }
+
+        m_quarantine.released( path );
+        return prop;
+    }
+
+    /**
+     * Parses the specified {@code entry} with {@code handler}, from the {@code contents} read by the loader, or from
+     * the file on disk if {@code contents} is {@code null} and {@code handler} is an adapted file handler. Unlike
+     * {@link #read(IConfigurationResourceHandler, ConfigurationEntry, long[])} this does not touch the quarantine.
+     */
+    private static Properties parse( IConfigurationResourceHandler handler, ConfigurationEntry entry,
+                                     ConfigurationReader.Contents contents )
+        throws IOException
+    {
+        if( contents == null )
+        {
+            return ( (FileHandlerAdapter) handler ).handle( entry.getFile() );
+        }
+        return handler.handle( entry, contents.getStream() );
+    }
+
+    /**
+     * Pushes all configurations of the specified {@code changeSet}. If any of them fails, the configurations already
+     * pushed are rolled back to their previous dictionaries.
+     *
+     * @throws IOException Thrown if a configuration fails to update. The change set has been rolled back.
+     */
+    private void apply( ChangeSet changeSet, SnapshotDelta delta, RegistrationJournal journal )
+    throws IOException
+    {
+        List<PendingConfiguration> configurations = changeSet.getConfigurations();
+        LOGGER.info( "Applying change set of [" + configurations.size() + "] configurations." );
+
+        String servicePid = null;
+        try
+        {
+            for( PendingConfiguration configuration : configurations )
+            {
+                servicePid = configuration.getServicePid();
+                changeSet.capture( configuration );
+                if( journal != null )
+                {
+                    journal.begin( servicePid, configuration.getFingerprint() );
+                }
+                update( configuration, true );
+            }
+        }
+        catch( Exception e )
+        {
+            int rolledBack = changeSet.rollback();
+            if( journal != null )
+            {
+                for( PendingConfiguration configuration : configurations )
+                {
+                    journal.abort( configuration.getServicePid() );
+                }
+            }
+            IOException failure = new IOException( "Failed to apply configuration [" + servicePid
+                + "] of change set. Rolled back [" + rolledBack + "] configurations." );
+            failure.initCause( e );
+            throw failure;
+        }
+
+        for( PendingConfiguration configuration : configurations )
+        {
+            applied( configuration, journal );
+        }
+        changeSet.recordApplied( delta );
+    }
+
+    /**
+     * Pushes the specified {@code configuration}. A factory configuration of which some instances failed to update is
+     * not recorded as applied, and its journal entry is left unfinished, so that the next pass pushes it again.
+     *
+     * @return {@code true} if the configuration was pushed completely.
+     */
+    private boolean push( PendingConfiguration configuration, RegistrationJournal journal )
+    throws IOException, InvalidSyntaxException
+    {
+        if( journal != null )
+        {
+            journal.begin( configuration.getServicePid(), configuration.getFingerprint() );
+        }
+        if( !update( configuration, false ) )
+        {
+            LOGGER.warn( "Configuration [" + configuration.getServicePid() + "] was only partially updated." );
+            return false;
+        }
+        applied( configuration, journal );
+        return true;
+    }
+
+    /**
+     * Updates the specified {@code configuration} in the config service. A {@code strict} factory update stops at the
+     * first instance that fails instead of skipping it.
+     *
+     * @return {@code false} if a factory instance was skipped because it failed to update, {@code true} otherwise.
+     */
+    private boolean update( PendingConfiguration configuration, boolean strict )
+    throws IOException, InvalidSyntaxException
+    {
+        String servicePid = configuration.getServicePid();
+        Properties prop = configuration.getProperties();
+        ConfigurationAdmin configAdminService = getConfigurationAdminService();
+
+        // Updates are throttled outside the lock, so that a paced reload does not block
+        // the configuration admin service from being swapped
+        if( configuration.isFactory() && strict )
+        {
+            m_processor.update( configAdminService, servicePid, prop );
+        }
+        else if( configuration.isFactory() )
+        {
+            return m_processor.process( configAdminService, servicePid, prop );
+        }
+        else
+        {
+            Configuration conf = configAdminService.getConfiguration( servicePid, null );
+            m_throttle.acquire();
+            try
+            {
+                conf.update( prop );
+            }
+            finally
+            {
+                m_throttle.release();
+            }
+        }
+        return true;
+    }
+
+    private void applied( PendingConfiguration configuration, RegistrationJournal journal )
+    throws IOException
+    {
+        String servicePid = configuration.getServicePid();
+        if( journal != null )
+        {
+            journal.commit( servicePid, configuration.getFingerprint() );
+        }
+        m_index.applied( servicePid, configuration.getFileName(), configuration.isFactory(),
+            configuration.getFingerprint(), configuration.getSourceFingerprint() );
+        m_history.record( servicePid, configuration.isFactory(), configuration.getSourceProperties() );
+        LOGGER.info( "Register configuration [" + servicePid + "]" );
+
+        LoadListener listener = getLoadListener();
+        if( listener != null )
+        {
+            listener.pushed( servicePid, configuration.isFactory() );
+        }
+    }
+
+    /**
+     * @return {@code true} if the configuration of {@code servicePid} was pushed, or found up to date, by this loader.
+     */
+    final boolean isConfigured( String servicePid )
+    {
+        return m_index.get( servicePid ) != null;
+    }
+
+    /**
+     * Restores the configuration of {@code servicePid} to the version pushed {@code steps} pushes ago, with a single
+     * update. The configuration files are not changed, so the next overwriting pass pushes the files again.
+     *
+     * @param servicePid The service pid. This argument must not be {@code null}.
+     * @param steps      Number of versions to go back, at least {@code 1}.
+     *
+     * @throws IOException              Thrown if the configuration can not be updated.
+     * @throws InvalidSyntaxException   Thrown if the service pid results in an invalid filter.
+     * @throws IllegalStateException    Thrown if the configuration admin service is not available.
+     * @throws IllegalArgumentException Thrown if the history of {@code servicePid} does not go back {@code steps}
+     *                                  versions.
+     */
+    final void rollbackConfiguration( String servicePid, int steps )
+    throws IOException, InvalidSyntaxException, IllegalStateException, IllegalArgumentException
+    {
+        NullArgumentException.validateNotNull( servicePid, "servicePid" );
+
+        Properties version = m_history.getVersion( servicePid, steps );
+        ConfigurationIndex.Entry entry = m_index.get( servicePid );
+        String fileName = entry == null ? null : entry.getFileName();
+        long sourceFingerprint = entry == null ? 0 : entry.getSourceFingerprint();
+        PendingConfiguration configuration = new PendingConfiguration( servicePid, fileName,
+            m_history.isFactory( servicePid ), version, decrypt( version ), sourceFingerprint );
+
+        RegistrationJournal journal = getJournal();
+        if( journal != null )
+        {
+            journal.begin( servicePid, configuration.getFingerprint() );
+        }
+        // Factory instances are updated under the pids they were pushed as, instances the older version lacks go
+        update( configuration, true );
+        if( configuration.isFactory() )
+        {
+            m_processor.deleteSurplus( getConfigurationAdminService(), servicePid, version );
+        }
+        m_history.rolledBack( servicePid, steps );
+        if( journal != null )
+        {
+            journal.commit( servicePid, configuration.getFingerprint() );
+            journal.sync();
+        }
+
+        m_index.applied( servicePid, fileName, configuration.isFactory(), configuration.getFingerprint(),
+            sourceFingerprint );
+        LOGGER.info( "Rolled back configuration [" + servicePid + "] by [" + steps + "] versions." );
+    }
+
+    /**
+     * Brings the configuration admin service up to date after it became available or was replaced. If nothing was
+     * loaded yet, the loader state is seeded from the registration journal and the snapshot baseline if they show that
+     * the service already holds the configuration area, see {@link #seed()}, and the configuration area is loaded
+     * otherwise. If something was loaded, only the configurations this loader pushed and the service does not hold are
+     * pushed again, from the dictionaries the loader remembers, without reading the configuration area.
+     *
+     * @return The number of configurations pushed again, {@code -1} if the configuration area was loaded.
+     *
+     * @throws IOException            Thrown if a configuration can not be pushed.
+     * @throws InvalidSyntaxException Thrown if a service pid results in an invalid filter.
+     * @throws IllegalStateException  Thrown if the configuration admin service is not available.
+     */
+    final int restoreConfigurations()
+    throws IOException, InvalidSyntaxException, IllegalStateException
+    {
+        List<ConfigurationIndex.Entry> entries = m_index.entries( null, 0, -1 );
+        if( entries.isEmpty() )
+        {
+            if( seed() )
+            {
+                return 0;
+            }
+            registerConfigurations( null, false );
+            return -1;
+        }
+
+        Set<String> existingPids = new HashSet<String>();
+        Configuration[] existingConfigurations = getConfigurationAdminService().listConfigurations( null );
+        if( existingConfigurations != null )
+        {
+            for( Configuration existingConfig : existingConfigurations )
+            {
+                existingPids.add( existingConfig.getPid() );
+                if( existingConfig.getFactoryPid() != null )
+                {
+                    existingPids.add( existingConfig.getFactoryPid() );
+                }
+            }
+        }
+
+        RegistrationJournal journal = getJournal();
+        int pushed = 0;
+        boolean unknown = false;
+        for( ConfigurationIndex.Entry entry : entries )
+        {
+            String servicePid = entry.getServicePid();
+            if( existingPids.contains( servicePid ) )
+            {
+                continue;
+            }
+
+            Properties properties = m_history.getCurrent( servicePid );
+            if( properties == null )
+            {
+                // Skipped by an earlier pass, so this loader never held its dictionary
+                unknown = true;
+                continue;
+            }
+            if( push( new PendingConfiguration( servicePid, entry.getFileName(), entry.isFactory(), properties,
+                decrypt( properties ), entry.getSourceFingerprint() ), journal ) )
+            {
+                pushed++;
+            }
+        }
+        if( journal != null )
+        {
+            journal.sync();
+        }
+
+        if( unknown )
+        {
+            // Pushes only what the configuration admin service does not hold
+            registerConfigurations( null, false );
+        }
+        LOGGER.info( "Pushed [" + pushed + "] configurations missing in the configuration admin service again." );
+        return pushed;
+    }
+
+    /**
+     * Seeds the index from the registration journal instead of loading the configuration area, e.g. after a restart.
+     * This is only possible if the configuration area is a configuration store whose latest snapshot is the baseline
+     * the last full pass applied, so that the area did not change since, and the configuration admin service holds
+     * every configuration the journal recorded, none of them unfinished.
+     *
+     * @return {@code true} if the index was seeded, {@code false} if the configuration area must be loaded.
+     */
+    private boolean seed()
+    throws IOException, InvalidSyntaxException
+    {
+        long start = System.currentTimeMillis();
+        RegistrationJournal journal = getJournal();
+        long baseline = m_snapshotDelta.getVersion();
+        if( journal == null || journal.hasUnfinished() || baseline < 0 || getLatestSnapshotVersion() != baseline )
+        {
+            return false;
+        }
+
+        Map<String, Long> committed = journal.getCommitted();
+        if( committed.isEmpty() )
+        {
+            return false;
+        }
+
+        Set<String> pids = new HashSet<String>();
+        Set<String> factoryPids = new HashSet<String>();
+        Configuration[] existingConfigurations = getConfigurationAdminService().listConfigurations( null );
+        if( existingConfigurations != null )
+        {
+            for( Configuration existingConfig : existingConfigurations )
+            {
+                pids.add( existingConfig.getPid() );
+                if( existingConfig.getFactoryPid() != null )
+                {
+                    factoryPids.add( existingConfig.getFactoryPid() );
+                }
+            }
+        }
+        for( String servicePid : committed.keySet() )
+        {
+            if( !pids.contains( servicePid ) && !factoryPids.contains( servicePid ) )
+            {
+                return false;
+            }
+        }
+
+        for( String servicePid : committed.keySet() )
+        {
+            m_index.skipped( servicePid, null, factoryPids.contains( servicePid ) );
+        }
+        LOGGER.info( "Configuration admin service holds all [" + committed.size() + "] configurations of snapshot"
+            + " version [" + baseline + "] recorded in the registration journal." );
+
+        LoadListener listener = getLoadListener();
+        if( listener != null )
+        {
+            listener.loaded( 0, committed.size(), 0, System.currentTimeMillis() - start );
+        }
+        return true;
+    }
+
+    /**
+     * Returns the configuration admin service.
+     *
+     * @throws IllegalStateException Thrown if the configuration admin service is not available.
+     */
+    private ConfigurationAdmin getConfigurationAdminService()
+    throws IllegalStateException
+    {
+        synchronized( this )
+        {
+            if( m_configAdminService == null )
+            {
+                throw new IllegalStateException(
+                    "Configuration admin service is not available. Please start configuration admin bundle."
+                );
+            }
+            return m_configAdminService;
+        }
+    }
+
+    /**
+     * Returns {@code true} if the configuration area is a configuration store directory whose latest snapshot is newer
+     * than the one applied last. The configuration area is not opened and nothing is logged, so this can be polled.
+     *
+     * @return A {@code boolean} indicator whether a newer snapshot is available.
+     */
+    final boolean hasNewerSnapshot()
+    {
+        return getLatestSnapshotVersion() > m_snapshotDelta.getVersion();
+    }
+
+    /**
+     * @return the version of the latest snapshot if the configuration area is a configuration store directory,
+     *         {@code -1} otherwise.
+     */
+    private long getLatestSnapshotVersion()
+    {
+        String configArea = m_propertyResolver.getProperty( BUNDLES_CONFIGURATION_LOCATION );
+        File location = new File( configArea == null ? DEFAULT_CONFIGURATION_LOCATION : configArea );
+        if( !location.isDirectory() || new File( location, DIRECTORY_NAME_FACTORIES ).exists()
+            || new File( location, DIRECTORY_NAME_SERVICES ).exists() )
+        {
+            return -1;
+        }
+
+        File snapshot = SnapshotConfigurationSource.findLatest( location );
+        return snapshot == null ? -1 : SnapshotConfigurationSource.getVersion( snapshot );
+    }
+
+    /**
+     * Returns the interval at which {@link #hasNewerSnapshot()} should be checked, see
+     * {@link #BUNDLES_CONFIGURATION_SNAPSHOT_INTERVAL}.
+     *
+     * @return The interval in seconds, {@code 0} to not check.
+     */
+    final long getSnapshotInterval()
     {
-        NullArgumentException.validateNotNull( handler, "handler" );
-
-        synchronized( m_handlers )
+        String value = m_propertyResolver.getProperty( BUNDLES_CONFIGURATION_SNAPSHOT_INTERVAL );
+        long interval = DEFAULT_SNAPSHOT_INTERVAL;
+        if( value != null && value.trim().length() > 0 )
         {
-            m_handlers.add( 0, handler );
-
-            // Reload all configurations just in case if this is added later
-            // Only do this though if the config admin service is available. If
-            // the config admin service is not currently available, the registerConfigurations
-            // call is delayed until the config admin service is available
-            if (m_configAdminService != null) {
-                try
-                {
-                    registerConfigurations(null, false);
-                } catch( IOException e )
-                {
-                    String msg = "IOException by either getting the configuration admin or loading the configuration file.";
-                    LOGGER.error( msg, e );
-                } catch( InvalidSyntaxException e )
-                {
-                    LOGGER.error( "Invalid syntax. This should not happened.", e );
-                }
+            try
+            {
+                interval = Math.max( 0, Long.parseLong( value.trim() ) );
+            }
+            catch( NumberFormatException e )
+            {
+                LOGGER.warn( "Invalid value [" + value + "] for property [" + BUNDLES_CONFIGURATION_SNAPSHOT_INTERVAL
+                    + "]. Using [" + interval + "]." );
             }
         }
+        return interval;
     }
 
-
     /**
-     * Registers configuration for OSGi Managed services.
-     * 
-     * @param configuration if null then all configuration found will be registered.
-     * @param overwrite     A {@code boolean} indicator to overwrite the configuration
-     * 
-     * @throws IOException            Thrown if there is an IO problem during loading of {@code configuration}.
-     * @throws InvalidSyntaxException Thrown if there is an invalid exception during retrieval of configurations.
-     * @throws IllegalStateException  Thrown if the configuration admin service is not available.
+     * Opens the configuration area. {@link #BUNDLES_CONFIGURATION_LOCATION} may point to a configuration directory, to
+     * a configuration archive, to a directory containing configuration archives, to a configuration snapshot, or to a
+     * configuration store directory containing snapshots, of which the latest is used. Returns {@code null} if the
+     * configuration area does not exist.
      */
-    final void registerConfigurations( String configuration, boolean overwrite )
-    throws IOException, InvalidSyntaxException, IllegalStateException
+    private ConfigurationSource openConfigurationSource()
+    throws IOException
     {
-        if( m_configAdminService == null )
+        String configArea = m_propertyResolver.getProperty( BUNDLES_CONFIGURATION_LOCATION );
+
+        // Only run the configuration changes if the configArea is set.
+        if( configArea == null )
         {
-            throw new IllegalStateException(
-                "Configuration admin service is not available. Please start configuration admin bundle."
-            );
+            LOGGER.info( "System property [" + BUNDLES_CONFIGURATION_LOCATION + "] is not defined." );
+            LOGGER.info( "Using default configurations location [" + DEFAULT_CONFIGURATION_LOCATION + "]." );
+            configArea = DEFAULT_CONFIGURATION_LOCATION;
         }
 
-        File configDir = getConfigDir();
-        if( configDir == null )
+        LOGGER.info( "Using configuration from [" + configArea + "]" );
+        File location = new File(configArea);
+        if( !location.exists() )
         {
+            String absolutePath = location.getAbsolutePath();
+            LOGGER.error( "Configuration area [" + absolutePath + "] does not exist. Unable to load properties." );
+            return null;
+        }
 
-            return;
+        if( ArchiveConfigurationSource.isArchive( location ) )
+        {
+            return new ArchiveConfigurationSource( location );
         }
 
-        Configuration[] existingConfigurations;
-        synchronized( this )
+        if( SnapshotConfigurationSource.isSnapshot( location ) )
         {
-            existingConfigurations = m_configAdminService.listConfigurations( null );
+            return new SnapshotConfigurationSource( location );
         }
 
-        Set<String> configCache = new HashSet<String>();
-        if( existingConfigurations != null && !overwrite )
+        if( new File( location, DIRECTORY_NAME_FACTORIES ).exists()
+            || new File( location, DIRECTORY_NAME_SERVICES ).exists() )
         {
-            for( Configuration existingConfig : existingConfigurations )
-            {
-                configCache.add(existingConfig.getPid());
-            }
+            return new DirectoryConfigurationSource( location );
         }
 
-        // Create configuration for ManagedServiceFactory
-        createConfiguration(configuration, configDir, configCache, true);
-        // Create configuration for ManagedService
-        createConfiguration(configuration, configDir, configCache, false);
-    }
+        File snapshot = SnapshotConfigurationSource.findLatest( location );
+        if( snapshot != null )
+        {
+            return new SnapshotConfigurationSource( snapshot );
+        }
 
-    private void createConfiguration( String configuration, File configDir, Set<String> configCache, boolean isFactory )
-    throws IOException
-    {
-        File dir;
-        if( isFactory )
+        File[] archives = location.listFiles( new FileFilter()
         {
-            dir = new File( configDir, DIRECTORY_NAME_FACTORIES );
+
+            public boolean accept( File file )
+            {
+                return ArchiveConfigurationSource.isArchive( file );
+            }
         }
-        else
+        );
+        if( archives == null || archives.length == 0 )
         {
-            dir = new File( configDir, DIRECTORY_NAME_SERVICES );
+            return new DirectoryConfigurationSource( location );
         }
 
-        if( !dir.exists() )
+        // Archives are applied in name order, so that e.g. versioned archives override their predecessors
+        Arrays.sort( archives );
+        List<ConfigurationSource> sources = new ArrayList<ConfigurationSource>();
+        try
         {
-            LOGGER.info( "Directory [" + dir + "] does not exist." );
-            return;
+            for( File archive : archives )
+            {
+                sources.add( new ArchiveConfigurationSource( archive ) );
+            }
         }
-
-        String[] files = dir.list();
-        for( String configFileName : files )
+        catch( IOException e )
         {
-            createConfigurationForFile( configuration, configFileName, configCache, dir, isFactory );
+            for( ConfigurationSource source : sources )
+            {
+                source.close();
+            }
+            throw e;
         }
+        return new CompositeConfigurationSource( location.getAbsolutePath(), sources );
     }
 
 
-    private void createConfigurationForFile( String configuration, String configFileName,
-        Set<String> configCache, File dir, boolean isFactory )
+    /**
+     * Dispose this {@code ConfigurationAdminFacade} instance. Once this object instance is disposed, it is not meant to
+     * be used again.
+     */
+    void dispose()
+    {
+        m_configAdminService = null;
+        m_handlers.clear();
+        m_index.clear();
+        m_snapshotDelta.clear();
+        m_quarantine.clear();
+        m_secrets.clear();
+        m_history.clear();
+        setJournal( null );
+    }
+
+    /**
+     * Prints the configuration files whose path relative to the configuration area matches {@code pattern}, e.g.
+     * {@code services/my.pid.properties}. File names are streamed to {@code writer} while the configuration area is
+     * visited.
+     *
+     * @param writer  The writer to print to. This argument must not be {@code null}.
+     * @param pattern The pattern to match, or {@code null} to print all files.
+     * @param offset  Number of matching files to skip.
+     * @param limit   Maximum number of files to print, {@code -1} for all.
+     *
+     * @return The number of printed files.
+     *
+     * @throws IOException Thrown if the configuration area can not be read.
+     */
+    final int printConfigFileList( final PrintWriter writer, final Pattern pattern, final int offset, final int limit )
     throws IOException
     {
+        NullArgumentException.validateNotNull( writer, "writer" );
 
-        File f = new File( dir, configFileName );
-        if( !f.isDirectory() )
+        ConfigurationSource source = openConfigurationSource();
+        if( source == null )
         {
-            List<IConfigurationFileHandler> handlers;
+            writer.println( "Configuration dir is not setup." );
+            return 0;
+        }
 
-            synchronized( m_handlers )
-            {
-                handlers = new ArrayList<IConfigurationFileHandler>( m_handlers );
-            }
+        try
+        {
+            writer.println( "config dir: [" + source.getLocation() + "] contains the following config files:" );
 
-            // since the configFileName might end with a file type suffix, we have to check
-            // all file handlers
-            for( IConfigurationFileHandler handler : handlers )
+            final int[] counts = new int[2]; // matched, printed
+            ConfigurationSource.Visitor printer = new ConfigurationSource.Visitor()
             {
-                // check if we have the correct file handler for the file
-                if( handler.canHandle( f ) )
-                {
-                    // get the service PID
-                    String servicePid = handler.getServicePID( configFileName );
 
-                    // check if the service is already configured
-                    if( configCache.contains( servicePid ) )
+                public boolean visit( ConfigurationEntry entry )
+                {
+                    String path = entry.getPath();
+                    if( pattern != null && !pattern.matcher( path ).matches() )
                     {
-                        return;
+                        return true;
                     }
 
-                    // check if the service is the one that should be configured
-                    if( (configuration != null) && !servicePid.equals( configuration ) )
+                    if( counts[ 0 ]++ >= offset )
                     {
-                        return;
+                        writer.println( path );
+                        counts[ 1 ]++;
                     }
-
-                    // configure the service
-                    handle( handler, configFileName, f, isFactory );
+                    return limit < 0 || counts[ 1 ] < limit;
                 }
+            };
+
+            source.visit( true, printer );
+            if( limit < 0 || counts[ 1 ] < limit )
+            {
+                source.visit( false, printer );
             }
+            return counts[ 1 ];
+        }
+        catch( InvalidSyntaxException e )
+        {
+            // Not thrown by the printer
+            throw new IllegalStateException( e.getMessage() );
+        }
+        finally
+        {
+            source.close();
         }
     }
 
-
     /**
-     * Handle the extraction and registration of the configuration into the config service.
-     * If a property service.pid exists in the configuration, then that will be used to locate the service instance.
-     * To register the service with a service.pid, do something like
-     * <pre>
-     * Properties filterProp = new Properties();
-     * filterProp.put(Constants.SERVICE_PID, "my.test.service.Interface");
-     * bundleContext.registerService(ManagedService.class.getName(), myServiceInstance, filterProp);
-     * </pre>
-     * in your client code that registeres the managed service.
+     * Prints the configuration loaded from the specified {@code fileName} using the handler that would load it.
+     *
+     * @param writer   The writer to print to. This argument must not be {@code null}.
+     * @param fileName The path of the file relative to the configuration area. This argument must not be {@code null}.
+     *
+     * @throws IOException Thrown if the configuration area can not be read.
      */
-    private void handle( IConfigurationFileHandler handler, String configFile, File file, boolean isFactory )
+    final void printConfiguration( PrintWriter writer, String fileName )
     throws IOException
     {
-        String servicePid = handler.getServicePID( configFile );
-        Properties prop = handler.handle(file);
+        NullArgumentException.validateNotNull( writer, "writer" );
+        NullArgumentException.validateNotNull( fileName, "fileName" );
 
-        // Find out if a service.pid property is included, use it if it does
-        String str = (String) prop.get(Constants.SERVICE_PID);
-        if( str != null )
+        ConfigurationSource source = openConfigurationSource();
+        if( source == null )
         {
-            servicePid = str;
+            writer.println( "Configuration dir is not setup." );
+            return;
         }
 
-        synchronized( this )
+        try
         {
-            if( isFactory )
+            ConfigurationEntry entry = source.getEntry( fileName );
+            if( entry == null )
             {
-                m_processor.process( m_configAdminService, servicePid, prop );
+                writer.println( "Can't read configfile [" + fileName + "]" );
+                return;
             }
-            else
+
+            // Read without quarantine bookkeeping, printing a file must not change what the next pass loads
+            Properties props = null;
+            IConfigurationResourceHandler handler = getHandler( getHandlers(), entry );
+            if( handler != null )
             {
-                Configuration conf = m_configAdminService.getConfiguration( servicePid, null );
-                conf.update(prop);
+                boolean adapted = handler instanceof FileHandlerAdapter && entry.getFile() != null;
+                try
+                {
+                    props = parse( handler, entry, adapted ? null : m_reader.read( entry ) );
+                }
+                catch( IOException e )
+                {
+                    writer.println( "Can't read configfile [" + entry + "] - " + e.getMessage() );
+                    return;
+                }
+                catch( RuntimeException e )
+                {
+                    writer.println( "Can't read configfile [" + entry + "] - " + e );
+                    return;
+                }
             }
-        }
-
-        LOGGER.info( "Register configuration [" + servicePid + "]" );
-    }
 
-    private File getConfigDir()
-    {
-        String configArea = m_propertyResolver.getProperty( BUNDLES_CONFIGURATION_LOCATION );
+            if( props == null )
+            {
+                String message = "Can't read configfile [" + entry + "] - not a correct config file";
+                writer.println( message );
+                return;
+            }
 
-        // Only run the configuration changes if the configArea is set.
-        if( configArea == null )
-        {
-            LOGGER.info( "System property [" + BUNDLES_CONFIGURATION_LOCATION + "] is not defined." );
-            LOGGER.info( "Using default configurations location [" + DEFAULT_CONFIGURATION_LOCATION + "]." );
-            configArea = DEFAULT_CONFIGURATION_LOCATION;
+            writer.println( "Config file: [" + entry + "]" );
+            Set<String> keys = new TreeSet<String>();
+            for( Object key : props.keySet() )
+            {
+                keys.add( String.valueOf( key ) );
+            }
+            for( String key : keys )
+            {
+                writer.println( key + " = " + props.get( key ) );
+            }
         }
-
-        LOGGER.info( "Using configuration from [" + configArea + "]" );
-        File dir = new File(configArea);
-        if( !dir.exists() )
+        finally
         {
-            String absolutePath = dir.getAbsolutePath();
-            LOGGER.error( "Configuration area [" + absolutePath + "] does not exist. Unable to load properties." );
-            return null;
+            source.close();
         }
-        return dir;
     }
 
-
     /**
-     * Dispose this {@code ConfigurationAdminFacade} instance. Once this object instance is disposed, it is not meant to
-     * be used again.
+     * Compiles the current configuration area into a snapshot published in the {@code store} directory, for other
+     * nodes to load.
+     *
+     * @param store The configuration store directory. This argument must not be {@code null}.
+     *
+     * @return The published snapshot file, {@code null} if the configuration area does not exist.
+     *
+     * @throws IOException Thrown if the configuration can not be read or the snapshot can not be written.
      */
-    void dispose()
-    {
-        m_configAdminService = null;
-        m_handlers.clear();
-    }
-
-    final void printConfigFileList( PrintWriter writer, String fileName )
+    final File publishSnapshot( File store )
+    throws IOException
     {
-        File configDir = getConfigDir();
+        NullArgumentException.validateNotNull( store, "store" );
 
-        if( configDir == null )
+        ConfigurationSource source = openConfigurationSource();
+        if( source == null )
         {
-            writer.println("Configuration dir is not setup.");
-            return;
+            return null;
         }
 
-        if( fileName != null )
+        try
         {
-            printConfiguration(writer, fileName, configDir);
-            return;
+            return ConfigurationSnapshotWriter.publish( source, store, -1 );
         }
-
-        String configAbsolutePath = configDir.getAbsolutePath();
-        writer.println("config dir: [" + configAbsolutePath + "] contains the following config files:");
-        String[] files = configDir.list();
-        for( String file : files )
+        finally
         {
-            writer.println(file);
+            source.close();
         }
     }
 
-    private void printConfiguration( PrintWriter writer, String fileName, File configDir )
+    /**
+     * Prints the loader state of the service pids matching {@code pattern}.
+     *
+     * @param writer  The writer to print to. This argument must not be {@code null}.
+     * @param pattern The pattern to match, or {@code null} to print all service pids.
+     * @param offset  Number of matching service pids to skip.
+     * @param limit   Maximum number of service pids to print, {@code -1} for all.
+     *
+     * @return The number of printed service pids.
+     */
+    final int printState( PrintWriter writer, Pattern pattern, int offset, int limit )
     {
-        File configFile = new File(configDir, fileName);
-        String absolutePath = configFile.getAbsolutePath();
-        if( !configFile.canRead() || !configFile.exists() )
-        {
-            writer.println("Can't read configfile [" + absolutePath + "]");
-            return;
-        }
+        NullArgumentException.validateNotNull( writer, "writer" );
 
-        Properties props = new Properties();
-        try
+        List<ConfigurationIndex.Entry> entries = m_index.entries( pattern, offset, limit );
+        for( ConfigurationIndex.Entry entry : entries )
         {
-            InputStream in = new FileInputStream(configFile);
-            props.load(in);
+            String lastPushed = "-";
+            if( entry.getLastPushed() != 0 )
+            {
+                lastPushed = new Date( entry.getLastPushed() ).toString();
+            }
+
+            writer.println( entry.getServicePid() + " [" + entry.getState() + "]"
+                + ( entry.isFactory() ? " factory" : "" )
+                + " file=" + entry.getFileName()
+                + " fingerprint=" + Long.toHexString( entry.getFingerprint() )
+                + " source=" + Long.toHexString( entry.getSourceFingerprint() )
+                + " lastPushed=" + lastPushed );
         }
-        catch( Exception e )
+        return entries.size();
+    }
+
+    /**
+     * Prints the configuration entries that failed to load and are quarantined.
+     *
+     * @param writer The writer to print to. This argument must not be {@code null}.
+     *
+     * @return The number of printed entries.
+     */
+    final int printFailures( PrintWriter writer )
+    {
+        NullArgumentException.validateNotNull( writer, "writer" );
+
+        List<Quarantine.Failure> failures = m_quarantine.failures();
+        for( Quarantine.Failure failure : failures )
         {
-            String message = "Can't read configfile [" + absolutePath + "] - not a correct config file";
-            writer.println(message);
-            return;
+            writer.println( failure.getPath()
+                + " fingerprint=" + Long.toHexString( failure.getFingerprint() )
+                + " attempts=" + failure.getAttempts()
+                + " lastFailed=" + new Date( failure.getLastFailed() )
+                + " retryAt=" + new Date( failure.getRetryAt() )
+                + " reason=" + failure.getReason() );
         }
+        return failures.size();
+    }
 
-        writer.println("Config file: [" + absolutePath + "]");
-        for( Object keyObject : props.keySet() )
+    private List<IConfigurationResourceHandler> getHandlers()
+    {
+        synchronized( m_handlers )
         {
-            String key = (String) keyObject;
-            String value = props.getProperty(key);
-            writer.println(key + " = " + value);
+            return new ArrayList<IConfigurationResourceHandler>( m_handlers );
         }
     }
 
-
     /**
      * Remove the specified {@code handler} from this {@code ConfigurationAdminFacade}.
      * 
@@ -372,6 +1475,22 @@ final class ConfigurationAdminFacade
     {
         NullArgumentException.validateNotNull( handler, "handler" );
 
+        removeFileHandler( new FileHandlerAdapter( handler ) );
+    }
+
+
+    /**
+     * Remove the specified {@code handler} from this {@code ConfigurationAdminFacade}.
+     * 
+     * @param handler The handler to be removed. This argument must not be {@code null}.
+     * 
+     * @throws IllegalArgumentException Thrown if the specified {@code handler} is {@code null}.
+     */
+    final void removeFileHandler( IConfigurationResourceHandler handler )
+    throws IllegalArgumentException
+    {
+        NullArgumentException.validateNotNull( handler, "handler" );
+
         synchronized( m_handlers )
         {
             m_handlers.remove( handler );
@@ -392,6 +1511,119 @@ final class ConfigurationAdminFacade
         }
     }
 
+    /**
+     * Set the journal that pushes are recorded in. The previous journal, if any, is closed.
+     *
+     * @param journal The journal, {@code null} to not record pushes.
+     */
+    final void setJournal( RegistrationJournal journal )
+    {
+        RegistrationJournal previous;
+        synchronized( this )
+        {
+            previous = m_journal;
+            m_journal = journal;
+        }
+        if( previous != null )
+        {
+            previous.close();
+        }
+    }
+
+    /**
+     * Set the file the baseline of snapshot deltas is kept in, and read the baseline saved in it by a previous run.
+     *
+     * @param file The file, {@code null} to keep the baseline in memory only.
+     *
+     * @throws IOException Thrown if the saved baseline can not be read.
+     */
+    final void setSnapshotBaseline( File file )
+        throws IOException
+    {
+        m_snapshotDelta.setFile( file );
+    }
+
+    private RegistrationJournal getJournal()
+    {
+        synchronized( this )
+        {
+            return m_journal;
+        }
+    }
+
+    /**
+     * Set the loader that runs the loads triggered by added handlers. Without a loader they run on the calling thread.
+     *
+     * @param loader The loader, {@code null} to load on the calling thread.
+     */
+    final void setLoader( ConfigurationLoader loader )
+    {
+        synchronized( this )
+        {
+            m_loader = loader;
+        }
+    }
+
+    /**
+     * Set the listener that is told about pushed configurations and completed loads.
+     *
+     * @param listener The listener, {@code null} to not notify anyone.
+     */
+    final void setLoadListener( LoadListener listener )
+    {
+        synchronized( this )
+        {
+            m_loadListener = listener;
+        }
+    }
+
+    private LoadListener getLoadListener()
+    {
+        synchronized( this )
+        {
+            return m_loadListener;
+        }
+    }
+
+    /**
+     * State of a single {@code registerConfigurations} pass.
+     */
+    private static final class Pass
+    {
+
+        /**
+         * The service pid to register, {@code null} to register all.
+         */
+        private final String m_configuration;
+        /**
+         * Service pids that must not be overwritten.
+         */
+        private final Set<String> m_configCache;
+        /**
+         * Service pids and factory pids known to the configuration admin service.
+         */
+        private final Set<String> m_existingPids;
+        private ConfigurationDiffer m_differ;
+        private SnapshotDelta m_delta;
+        private ChangeSet m_changeSet;
+        private RegistrationJournal m_journal;
+        /**
+         * Conditions of conditional files, evaluated once per pass.
+         */
+        private final ConfigurationConditions m_conditions;
+        private int m_pushed;
+        private int m_skipped;
+        private int m_failed;
+
+        private Pass( String configuration, ConfigurationConditions conditions )
+        {
+            m_configuration = configuration;
+            m_conditions = conditions;
+            m_configCache = new HashSet<String>();
+            m_existingPids = new HashSet<String>();
+        }
+    }
+
     /**
      * Resolves properties without coupling the facade to specific properties sources as System.getproperty or
      * BundleContext.getproperty.
@@ -409,4 +1641,30 @@ final class ConfigurationAdminFacade
         String getProperty(String key);
 
     }
+
+    /**
+     * Notified about the progress of the loader.
+     */
+    static interface LoadListener
+    {
+
+        /**
+         * Called after the configuration of {@code servicePid} was pushed to the configuration admin service.
+         *
+         * @param servicePid The service pid, or the factory pid.
+         * @param isFactory  {@code true} if the configuration is a managed service factory configuration.
+         */
+        void pushed( String servicePid, boolean isFactory );
+
+        /**
+         * Called after a load of the whole configuration area completed or failed. A load that finds no configuration
+         * area completes with all counts {@code 0}.
+         *
+         * @param pushed   Number of pushed configurations.
+         * @param skipped  Number of configurations that were up to date.
+         * @param failed   Number of configuration files that failed to load, plus one if the load itself failed.
+         * @param duration Duration of the load in milliseconds.
+         */
+        void loaded( int pushed, int skipped, int failed, long duration );
+    }
 }
@@ -0,0 +1,289 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.Hashtable;
+import java.util.StringTokenizer;
+import java.util.regex.Pattern;
+
+import org.apache.felix.shell.Command;
+import org.ops4j.lang.NullArgumentException;
+import org.ops4j.pax.configmanager.ConfigurationDiff;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * {@code ConfigurationCommand} exposes the configuration area and the loader state as the {@code confman} shell
+ * command.
+ * <pre>
+ * confman ls [-o offset] [-n count] [pattern]      lists configuration files, e.g. "services/org.ops4j.*"
+ * confman cat &lt;file&gt;                               prints a configuration file, e.g. "services/my.pid.properties"
+ * confman state [-o offset] [-n count] [pattern]   prints the loader state of service pids
+ * confman diff [pid]                               prints what reloading the configuration would change
+ * confman failures                                 prints the configuration files that failed to load
+ * confman rollback &lt;pid&gt; [steps]                    restores an earlier version pushed by the loader
+ * confman snapshot &lt;store&gt;                        publishes the configuration as a snapshot into a store directory
+ * </pre>
+ * Patterns use {@code *} and {@code ?} wildcards. Listings are printed a page at a time, {@value #DEFAULT_PAGE_SIZE}
+ * entries by default.
+ */
+final class ConfigurationCommand
+    implements Command
+{
+
+    private static final String COMMAND_NAME = "confman";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
+    private final ConfigurationAdminFacade m_facade;
+
+    ConfigurationCommand( ConfigurationAdminFacade facade )
+    {
+        NullArgumentException.validateNotNull( facade, "facade" );
+        m_facade = facade;
+    }
+
+    /**
+     * Registers a {@code ConfigurationCommand} for the specified {@code facade}.
+     *
+     * @param context The bundle context. This argument must not be {@code null}.
+     * @param facade  The facade. This argument must not be {@code null}.
+     *
+     * @return The service registration.
+     *
+     * @throws NoClassDefFoundError Thrown if the shell service package is not available.
+     */
+    static ServiceRegistration register( BundleContext context, ConfigurationAdminFacade facade )
+        throws NoClassDefFoundError
+    {
+        return context.registerService( Command.class.getName(), new ConfigurationCommand( facade ), new Hashtable() );
+    }
+
+    public final String getName()
+    {
+        return COMMAND_NAME;
+    }
+
+    public final String getUsage()
+    {
+        return COMMAND_NAME + " ls [-o offset] [-n count] [pattern] | cat <file> | state [-o offset] [-n count] [pattern]"
+            + " | diff [pid] | failures | rollback <pid> [steps] | snapshot <store>";
+    }
+
+    public final String getShortDescription()
+    {
+        return "inspect configuration files and the configuration loader state.";
+    }
+
+    public final void execute( String line, PrintStream out, PrintStream err )
+    {
+        StringTokenizer tokens = new StringTokenizer( line );
+        tokens.nextToken(); // command name
+
+        if( !tokens.hasMoreTokens() )
+        {
+            err.println( "Usage: " + getUsage() );
+            return;
+        }
+
+        String subCommand = tokens.nextToken();
+        PrintWriter writer = new PrintWriter( out, true );
+        try
+        {
+            if( "cat".equals( subCommand ) )
+            {
+                if( !tokens.hasMoreTokens() )
+                {
+                    err.println( "Usage: " + COMMAND_NAME + " cat <file>" );
+                    return;
+                }
+                m_facade.printConfiguration( writer, tokens.nextToken() );
+            }
+            else if( "ls".equals( subCommand ) || "state".equals( subCommand ) )
+            {
+                Page page = new Page( tokens );
+                int printed;
+                if( "ls".equals( subCommand ) )
+                {
+                    printed = m_facade.printConfigFileList( writer, page.m_pattern, page.m_offset, page.m_count );
+                }
+                else
+                {
+                    printed = m_facade.printState( writer, page.m_pattern, page.m_offset, page.m_count );
+                }
+
+                if( printed == page.m_count )
+                {
+                    writer.println( "... use -o " + ( page.m_offset + printed ) + " to see more." );
+                }
+            }
+            else if( "diff".equals( subCommand ) )
+            {
+                String servicePid = tokens.hasMoreTokens() ? tokens.nextToken() : null;
+                ConfigurationDiff diff = m_facade.registerConfigurations( servicePid, true, true );
+                writer.print( diff.isEmpty() ? "No changes.\n" : diff.toString() );
+            }
+            else if( "failures".equals( subCommand ) )
+            {
+                if( m_facade.printFailures( writer ) == 0 )
+                {
+                    writer.println( "No failures." );
+                }
+            }
+            else if( "rollback".equals( subCommand ) )
+            {
+                if( !tokens.hasMoreTokens() )
+                {
+                    err.println( "Usage: " + COMMAND_NAME + " rollback <pid> [steps]" );
+                    return;
+                }
+                String servicePid = tokens.nextToken();
+                int steps = tokens.hasMoreTokens() ? Page.parseInt( tokens, "steps" ) : 1;
+                m_facade.rollbackConfiguration( servicePid, steps );
+                writer.println( "Rolled back [" + servicePid + "] by [" + steps + "] versions." );
+            }
+            else if( "snapshot".equals( subCommand ) )
+            {
+                if( !tokens.hasMoreTokens() )
+                {
+                    err.println( "Usage: " + COMMAND_NAME + " snapshot <store>" );
+                    return;
+                }
+                File snapshot = m_facade.publishSnapshot( new File( tokens.nextToken() ) );
+                writer.println( snapshot == null ? "Configuration dir is not setup." : "Published [" + snapshot + "]" );
+            }
+            else
+            {
+                err.println( "Unknown sub command [" + subCommand + "]. Usage: " + getUsage() );
+            }
+        }
+        catch( IllegalArgumentException e )
+        {
+            err.println( e.getMessage() );
+        }
+        catch( IllegalStateException e )
+        {
+            err.println( e.getMessage() );
+        }
+        catch( IOException e )
+        {
+            err.println( "Failed to load configuration: " + e.getMessage() );
+        }
+        catch( InvalidSyntaxException e )
+        {
+            err.println( "Invalid service pid: " + e.getMessage() );
+        }
+        finally
+        {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Converts a wildcard {@code pattern} using {@code *} and {@code ?} to a regular expression.
+     *
+     * @param pattern The wildcard pattern. This argument must not be {@code null}.
+     *
+     * @return The compiled pattern.
+     */
+    static Pattern compileWildcard( String pattern )
+    {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for( int i = 0; i < pattern.length(); i++ )
+        {
+            char c = pattern.charAt( i );
+            if( c == '*' || c == '?' )
+            {
+                if( literal.length() > 0 )
+                {
+                    regex.append( Pattern.quote( literal.toString() ) );
+                    literal.setLength( 0 );
+                }
+                regex.append( c == '*' ? ".*" : "." );
+            }
+            else
+            {
+                literal.append( c );
+            }
+        }
+        if( literal.length() > 0 )
+        {
+            regex.append( Pattern.quote( literal.toString() ) );
+        }
+        return Pattern.compile( regex.toString() );
+    }
+
+    /**
+     * Paging arguments of the {@code ls} and {@code state} sub commands.
+     */
+    private static final class Page
+    {
+
+        private Pattern m_pattern;
+        private int m_offset;
+        private int m_count = DEFAULT_PAGE_SIZE;
+
+        private Page( StringTokenizer tokens )
+            throws IllegalArgumentException
+        {
+            while( tokens.hasMoreTokens() )
+            {
+                String token = tokens.nextToken();
+                if( "-o".equals( token ) )
+                {
+                    m_offset = parseInt( tokens, token );
+                }
+                else if( "-n".equals( token ) )
+                {
+                    m_count = parseInt( tokens, token );
+                }
+                else
+                {
+                    m_pattern = compileWildcard( token );
+                }
+            }
+        }
+
+        private static int parseInt( StringTokenizer tokens, String option )
+            throws IllegalArgumentException
+        {
+            if( !tokens.hasMoreTokens() )
+            {
+                throw new IllegalArgumentException( "Missing value for option [" + option + "]." );
+            }
+
+            String value = tokens.nextToken();
+            try
+            {
+                int result = Integer.parseInt( value );
+                if( result < 0 )
+                {
+                    throw new IllegalArgumentException( "Option [" + option + "] must not be negative." );
+                }
+                return result;
+            }
+            catch( NumberFormatException e )
+            {
+                throw new IllegalArgumentException( "Invalid value [" + value + "] for option [" + option + "]." );
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ops4j.lang.NullArgumentException;
+import org.osgi.framework.Constants;
+
+/**
+ * {@code ConfigurationConditions} evaluates the conditions of conditional configuration files against the properties
+ * of the node, e.g.
+ * <pre>
+ * services/my.pid@role=web,os=linux.properties
+ * services/my.pid@env!=prod.properties
+ * services/my.pid@role=web|api.properties
+ * </pre>
+ * The conditions follow the {@code @} up to the file extension of the handler that reads the file and must all hold,
+ * so that values may contain dots, e.g. {@code my.pid@os=mac.os.properties}. The methods therefore take the file name
+ * as returned by {@link org.ops4j.pax.configmanager.IConfigurationResourceHandler#getServicePID(String)}. A condition
+ * compares the value of a property, ignoring case, with one or more alternatives separated by {@code |}.
+ * {@code role}, {@code os} and {@code arch} stand for {@link ConfigurationAdminFacade#BUNDLES_CONFIGURATION_ROLE} and
+ * the framework os name and processor; any other key is looked up as a property itself. A name whose {@code @} is not
+ * followed by well-formed conditions is a plain file name.
+ * <p>
+ * One instance is used per pass, so that every distinct condition is parsed and evaluated only once.
+ */
+final class ConfigurationConditions
+{
+
+    private static final Log LOGGER = LogFactory.getLog( ConfigurationConditions.class );
+
+    static final char SEPARATOR = '@';
+
+    private final ConfigurationAdminFacade.PropertyResolver m_resolver;
+    private final Map<String, Boolean> m_results;
+    private final Map<String, String> m_properties;
+    private final Set<String> m_malformed;
+
+    /**
+     * @param resolver The property resolver. This argument must not be {@code null}.
+     */
+    ConfigurationConditions( ConfigurationAdminFacade.PropertyResolver resolver )
+    {
+        NullArgumentException.validateNotNull( resolver, "resolver" );
+
+        m_resolver = resolver;
+        m_results = new HashMap<String, Boolean>();
+        m_properties = new HashMap<String, String>();
+        m_malformed = new HashSet<String>();
+    }
+
+    /**
+     * @return {@code true} if the specified file {@code name} without extension carries well-formed conditions.
+     */
+    static boolean isConditional( String name )
+    {
+        return getStart( name ) > 0;
+    }
+
+    /**
+     * Returns the specified file {@code name} without extension and without its conditions, e.g. {@code my.pid} for
+     * {@code my.pid@role=web}. Names without well-formed conditions are returned as they are.
+     *
+     * @param name The file name without extension. This argument must not be {@code null}.
+     *
+     * @return The file name without conditions.
+     */
+    static String strip( String name )
+    {
+        int start = getStart( name );
+        return start > 0 ? name.substring( 0, start ) : name;
+    }
+
+    /**
+     * @return the number of conditions of the specified file {@code name} without extension, {@code 0} if it does not
+     *         carry well-formed conditions.
+     */
+    static int count( String name )
+    {
+        int start = getStart( name );
+        if( start <= 0 )
+        {
+            return 0;
+        }
+
+        int count = 1;
+        for( int i = start + 1; i < name.length(); i++ )
+        {
+            if( name.charAt( i ) == ',' )
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns {@code true} if all conditions of the specified file {@code name} hold on this node. Names without
+     * conditions always match. Names with malformed conditions are logged once and match as plain files.
+     *
+     * @param name The file name without extension. This argument must not be {@code null}.
+     *
+     * @return A {@code boolean} indicator whether the file applies to this node.
+     */
+    final boolean matches( String name )
+    {
+        NullArgumentException.validateNotNull( name, "name" );
+
+        int separator = name.indexOf( SEPARATOR );
+        if( separator < 0 )
+        {
+            return true;
+        }
+        if( getStart( name ) <= 0 )
+        {
+            if( m_malformed.add( name ) )
+            {
+                LOGGER.warn( "Configuration [" + name + "] has no valid conditions after '" + SEPARATOR
+                    + "', it is loaded as a plain file." );
+            }
+            return true;
+        }
+
+        String conditions = name.substring( separator + 1 );
+        Boolean result = m_results.get( conditions );
+        if( result == null )
+        {
+            result = evaluate( conditions );
+            m_results.put( conditions, result );
+        }
+        return result;
+    }
+
+    private boolean evaluate( String conditions )
+    {
+        for( String condition : conditions.split( "," ) )
+        {
+            int operator = condition.indexOf( '=' );
+            boolean negated = condition.charAt( operator - 1 ) == '!';
+            String key = condition.substring( 0, negated ? operator - 1 : operator );
+            String value = getProperty( key );
+
+            boolean matched = false;
+            for( String alternative : condition.substring( operator + 1 ).split( "\\|" ) )
+            {
+                if( alternative.equalsIgnoreCase( value ) )
+                {
+                    matched = true;
+                    break;
+                }
+            }
+            if( matched == negated )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String getProperty( String key )
+    {
+        if( m_properties.containsKey( key ) )
+        {
+            return m_properties.get( key );
+        }
+
+        String property = key;
+        if( "role".equals( key ) )
+        {
+            property = ConfigurationAdminFacade.BUNDLES_CONFIGURATION_ROLE;
+        }
+        else if( "os".equals( key ) )
+        {
+            property = Constants.FRAMEWORK_OS_NAME;
+        }
+        else if( "arch".equals( key ) )
+        {
+            property = Constants.FRAMEWORK_PROCESSOR;
+        }
+
+        String value = m_resolver.getProperty( property );
+        if( value != null )
+        {
+            value = value.trim();
+        }
+        m_properties.put( key, value );
+        return value;
+    }
+
+    /**
+     * @return the index of the separator in the specified file {@code name} without extension, {@code -1} if it is not
+     *         followed by well-formed conditions.
+     */
+    private static int getStart( String name )
+    {
+        int start = name.indexOf( SEPARATOR );
+        if( start <= 0 || start == name.length() - 1 )
+        {
+            return -1;
+        }
+        for( String condition : name.substring( start + 1 ).split( ",", -1 ) )
+        {
+            int operator = condition.indexOf( '=' );
+            int keyEnd = operator > 0 && condition.charAt( operator - 1 ) == '!' ? operator - 1 : operator;
+            if( keyEnd <= 0 )
+            {
+                return -1;
+            }
+            for( String alternative : condition.substring( operator + 1 ).split( "\\|", -1 ) )
+            {
+                if( alternative.length() == 0 )
+                {
+                    return -1;
+                }
+            }
+        }
+        return start;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.ops4j.lang.NullArgumentException;
+import org.ops4j.pax.configmanager.ConfigurationDiff;
+import org.osgi.framework.Constants;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+/**
+ * {@code ConfigurationDiffer} compares loaded configurations against the configuration admin service without
+ * creating or updating any configuration, so that no managed service is called back.
+ * <p>
+ * If the fingerprint of a loaded configuration equals the fingerprint the loader last pushed for the same service pid,
+ * the configuration is reported unchanged without querying the configuration admin service. All other configurations
+ * are looked up in the configurations the configuration admin service listed once at the start of the pass.
+ */
+final class ConfigurationDiffer
+{
+
+    private static final Set<String> MANAGED_KEYS = new HashSet<String>();
+
+    static
+    {
+        MANAGED_KEYS.add( Constants.SERVICE_PID );
+        MANAGED_KEYS.add( ConfigurationAdmin.SERVICE_FACTORYPID );
+        MANAGED_KEYS.add( ConfigurationAdmin.SERVICE_BUNDLELOCATION );
+        MANAGED_KEYS.add( ManagedFactoryPropertiesProcessor.INSTANCE );
+    }
+
+    private final Map<String, Configuration> m_configurations;
+    private final Map<String, Configuration> m_instances;
+    private final ConfigurationIndex m_index;
+    private final ManagedFactoryPropertiesProcessor m_processor;
+    private final ConfigurationDiff m_diff;
+    private final Set<String> m_seenPids;
+
+    /**
+     * @param existing  The configurations the configuration admin service holds, {@code null} if there are none.
+     * @param index     The index of pushed configurations. This argument must not be {@code null}.
+     * @param processor The factory processor. This argument must not be {@code null}.
+     */
+    ConfigurationDiffer( Configuration[] existing, ConfigurationIndex index,
+        ManagedFactoryPropertiesProcessor processor )
+    {
+        NullArgumentException.validateNotNull( index, "index" );
+        NullArgumentException.validateNotNull( processor, "processor" );
+
+        m_configurations = new HashMap<String, Configuration>();
+        m_instances = new HashMap<String, Configuration>();
+        if( existing != null )
+        {
+            for( Configuration configuration : existing )
+            {
+                m_configurations.put( configuration.getPid(), configuration );
+                Dictionary properties = configuration.getFactoryPid() == null ? null : configuration.getProperties();
+                Object instance =
+                    properties == null ? null : properties.get( ManagedFactoryPropertiesProcessor.INSTANCE );
+                if( instance != null )
+                {
+                    m_instances.put( getInstanceKey( configuration.getFactoryPid(), String.valueOf( instance ) ),
+                        configuration );
+                }
+            }
+        }
+        m_index = index;
+        m_processor = processor;
+        m_diff = new ConfigurationDiff();
+        m_seenPids = new HashSet<String>();
+    }
+
+    /**
+     * Compares the specified {@code configuration} against the configuration admin service.
+     *
+     * @param configuration The loaded configuration. This argument must not be {@code null}.
+     */
+    final void compare( PendingConfiguration configuration )
+    {
+        String servicePid = configuration.getServicePid();
+        m_seenPids.add( servicePid );
+
+        ConfigurationIndex.Entry entry = m_index.get( servicePid );
+        if( entry != null && entry.getState() == ConfigurationIndex.State.APPLIED
+            && entry.getFingerprint() == configuration.getFingerprint() )
+        {
+            return;
+        }
+
+        if( configuration.isFactory() )
+        {
+            Properties[] instances = m_processor.split( configuration.getProperties() );
+            for( int i = 0; i < instances.length; i++ )
+            {
+                Configuration existing = m_instances.get( getInstanceKey( servicePid, String.valueOf( i + 1 ) ) );
+                compare( servicePid + "." + i, instances[ i ], existing );
+            }
+        }
+        else
+        {
+            compare( servicePid, configuration.getProperties(), m_configurations.get( servicePid ) );
+        }
+    }
+
+    private static String getInstanceKey( String factoryPid, String instance )
+    {
+        return factoryPid + '\n' + instance;
+    }
+
+    private void compare( String servicePid, Properties properties, Configuration existing )
+    {
+        Dictionary current = null;
+        if( existing != null )
+        {
+            current = existing.getProperties();
+        }
+
+        if( current == null )
+        {
+            m_diff.pidAdded( servicePid, keys( properties ) );
+            return;
+        }
+
+        List<String> addedKeys = new ArrayList<String>();
+        List<String> changedKeys = new ArrayList<String>();
+        List<String> removedKeys = new ArrayList<String>();
+        for( String key : keys( properties ) )
+        {
+            Object currentValue = current.get( key );
+            if( currentValue == null )
+            {
+                addedKeys.add( key );
+            }
+            else if( !currentValue.equals( properties.get( key ) ) )
+            {
+                changedKeys.add( key );
+            }
+        }
+        for( Enumeration e = current.keys(); e.hasMoreElements(); )
+        {
+            String key = String.valueOf( e.nextElement() );
+            if( !MANAGED_KEYS.contains( key ) && !properties.containsKey( key ) )
+            {
+                removedKeys.add( key );
+            }
+        }
+
+        m_diff.pidChanged( servicePid, addedKeys, changedKeys, removedKeys );
+    }
+
+    private static List<String> keys( Properties properties )
+    {
+        List<String> keys = new ArrayList<String>();
+        for( Object key : properties.keySet() )
+        {
+            if( !MANAGED_KEYS.contains( key ) )
+            {
+                keys.add( String.valueOf( key ) );
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Completes the comparison.
+     *
+     * @param configuration The service pid the comparison was restricted to, {@code null} if the whole configuration
+     *                      area was compared.
+     *
+     * @return The diff.
+     */
+    final ConfigurationDiff finish( String configuration )
+    {
+        // Only a full pass tells which previously loaded service pids disappeared
+        if( configuration == null )
+        {
+            for( ConfigurationIndex.Entry entry : m_index.entries( null, 0, -1 ) )
+            {
+                if( entry.getState() == ConfigurationIndex.State.APPLIED
+                    && !m_seenPids.contains( entry.getServicePid() ) )
+                {
+                    m_diff.pidRemoved( entry.getServicePid() );
+                }
+            }
+        }
+        return m_diff;
+    }
+}
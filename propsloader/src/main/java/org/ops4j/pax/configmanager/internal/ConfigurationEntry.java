@@ -0,0 +1,138 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.ops4j.lang.NullArgumentException;
+import org.ops4j.pax.configmanager.IConfigurationResource;
+
+/**
+ * {@code ConfigurationEntry} is a single configuration file within a {@link ConfigurationSource}, either a file on disk
+ * or an entry of a configuration archive.
+ */
+abstract class ConfigurationEntry
+    implements IConfigurationResource
+{
+
+    private final String m_name;
+    private final String m_path;
+    private final boolean m_factory;
+    private final long m_size;
+    private final long m_lastModified;
+
+    /**
+     * @param name         The file name without any directory prefix. This argument must not be {@code null}.
+     * @param isFactory    {@code true} if the entry is located in the factories directory.
+     * @param size         The size in bytes, {@code -1} if unknown.
+     * @param lastModified The last modification time in milliseconds, {@code 0} if unknown.
+     */
+    ConfigurationEntry( String name, boolean isFactory, long size, long lastModified )
+    {
+        NullArgumentException.validateNotNull( name, "name" );
+
+        m_name = name;
+        m_factory = isFactory;
+        m_size = size;
+        m_lastModified = lastModified;
+
+        String directoryName;
+        if( isFactory )
+        {
+            directoryName = ConfigurationAdminFacade.DIRECTORY_NAME_FACTORIES;
+        }
+        else
+        {
+            directoryName = ConfigurationAdminFacade.DIRECTORY_NAME_SERVICES;
+        }
+        m_path = directoryName + "/" + name;
+    }
+
+    /**
+     * @return the file name without any directory prefix, e.g. {@code my.pid.properties}.
+     */
+    public final String getName()
+    {
+        return m_name;
+    }
+
+    /**
+     * @return the path relative to the configuration source, e.g. {@code services/my.pid.properties}.
+     */
+    public final String getPath()
+    {
+        return m_path;
+    }
+
+    public final boolean isFactory()
+    {
+        return m_factory;
+    }
+
+    public final long getSize()
+    {
+        return m_size;
+    }
+
+    public final long getLastModified()
+    {
+        return m_lastModified;
+    }
+
+    /**
+     * Returns the file backing this entry, or {@code null} if the entry is not a plain file on disk.
+     *
+     * @return The file.
+     */
+    File getFile()
+    {
+        return null;
+    }
+
+    /**
+     * Returns the CRC-32 checksum of the contents of this entry if it is known without reading the entry, {@code -1}
+     * otherwise.
+     *
+     * @return The checksum.
+     */
+    long getChecksum()
+    {
+        return -1;
+    }
+
+    /**
+     * @return the source this entry was listed by.
+     */
+    abstract ConfigurationSource getSource();
+
+    /**
+     * Opens a stream to the contents of this entry. The caller must close it.
+     *
+     * @return The stream.
+     *
+     * @throws IOException Thrown if the entry can not be read.
+     */
+    abstract InputStream openStream()
+        throws IOException;
+
+    @Override
+    public String toString()
+    {
+        return m_path;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.util.Dictionary;
+
+import org.ops4j.lang.NullArgumentException;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+import org.osgi.util.tracker.ServiceTracker;
+
+/**
+ * {@code ConfigurationEventPublisher} posts loader events to the EventAdmin service, if one is available. The
+ * EventAdmin package is an optional import, so this class must only be loaded after checking that it resolves.
+ */
+final class ConfigurationEventPublisher extends ServiceTracker
+{
+
+    /**
+     * Creates and opens a publisher.
+     *
+     * @param context The bundle context. This argument must not be {@code null}.
+     *
+     * @return The publisher.
+     *
+     * @throws NoClassDefFoundError Thrown if the EventAdmin package is not available.
+     */
+    static ConfigurationEventPublisher open( BundleContext context )
+        throws NoClassDefFoundError
+    {
+        NullArgumentException.validateNotNull( context, "context" );
+
+        ConfigurationEventPublisher publisher = new ConfigurationEventPublisher( context );
+        publisher.open();
+        return publisher;
+    }
+
+    private ConfigurationEventPublisher( BundleContext context )
+    {
+        super( context, EventAdmin.class.getName(), null );
+    }
+
+    /**
+     * Posts an event asynchronously. Does nothing if no EventAdmin service is available.
+     *
+     * @param topic      The topic. This argument must not be {@code null}.
+     * @param properties The event properties.
+     */
+    final void post( String topic, Dictionary properties )
+    {
+        EventAdmin eventAdmin = (EventAdmin) getService();
+        if( eventAdmin != null )
+        {
+            eventAdmin.postEvent( new Event( topic, properties ) );
+        }
+    }
+}
@@ -17,12 +17,17 @@ package org.ops4j.pax.configmanager.internal;
 
 import org.ops4j.lang.NullArgumentException;
 import org.ops4j.pax.configmanager.IConfigurationFileHandler;
+import org.ops4j.pax.configmanager.IConfigurationResourceHandler;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.util.tracker.ServiceTracker;
 
 /**
- * {@code ConfigurationFileHandlerServiceTracker} tracks {@code IConfigurationFileHandler} services.
+ * {@code ConfigurationFileHandlerServiceTracker} tracks {@code IConfigurationFileHandler} and
+ * {@code IConfigurationResourceHandler} services. A service registered under both interfaces is used as
+ * {@code IConfigurationResourceHandler}.
  *
  * @author Edward Yakop
  * @author Makas Tzavellas
@@ -30,14 +35,16 @@ import org.osgi.util.tracker.ServiceTracker;
 final class ConfigurationFileHandlerServiceTracker extends ServiceTracker
 {
 
-    private static final String SERVICE_NAME = IConfigurationFileHandler.class.getName();
+    private static final String SERVICE_FILTER = "(|"
+        + "(" + Constants.OBJECTCLASS + "=" + IConfigurationFileHandler.class.getName() + ")"
+        + "(" + Constants.OBJECTCLASS + "=" + IConfigurationResourceHandler.class.getName() + "))";
 
     private final ConfigurationAdminFacade m_configurationFacade;
 
     ConfigurationFileHandlerServiceTracker( BundleContext context, ConfigurationAdminFacade facade )
-        throws IllegalArgumentException
+        throws IllegalArgumentException, InvalidSyntaxException
     {
-        super( context, SERVICE_NAME, null );
+        super( context, context.createFilter( SERVICE_FILTER ), null );
 
         NullArgumentException.validateNotNull( facade, "facade" );
         m_configurationFacade = facade;
@@ -46,19 +53,31 @@ final class ConfigurationFileHandlerServiceTracker extends ServiceTracker
     @Override
     public final Object addingService( ServiceReference reference )
     {
-        IConfigurationFileHandler fileHandler = (IConfigurationFileHandler) super.addingService( reference );
+        Object handler = super.addingService( reference );
 
-        m_configurationFacade.addFileHandler( fileHandler );
+        if( handler instanceof IConfigurationResourceHandler )
+        {
+            m_configurationFacade.addFileHandler( (IConfigurationResourceHandler) handler );
+        }
+        else
+        {
+            m_configurationFacade.addFileHandler( (IConfigurationFileHandler) handler );
+        }
 
-        return fileHandler;
+        return handler;
     }
 
     @Override
     public final void removedService( ServiceReference serviceReference, Object objService )
     {
-        IConfigurationFileHandler fileHandler = (IConfigurationFileHandler) objService;
-
-        m_configurationFacade.removeFileHandler( fileHandler );
+        if( objService instanceof IConfigurationResourceHandler )
+        {
+            m_configurationFacade.removeFileHandler( (IConfigurationResourceHandler) objService );
+        }
+        else
+        {
+            m_configurationFacade.removeFileHandler( (IConfigurationFileHandler) objService );
+        }
 
         super.removedService( serviceReference, objService );
     }
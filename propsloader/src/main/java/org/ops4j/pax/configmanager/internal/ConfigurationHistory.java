@@ -0,0 +1,266 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ops4j.lang.NullArgumentException;
+
+/**
+ * {@code ConfigurationHistory} remembers the last dictionaries the loader pushed for every service pid, so that a bad
+ * push can be rolled back with a single update.
+ * <p>
+ * Only the latest dictionary of a service pid is kept in full. Older versions are kept as reverse diffs holding just
+ * the keys that changed, at most {@code size} of them per service pid; the oldest is dropped first. The latest
+ * dictionary is also what is pushed again when the configuration admin service is replaced.
+ */
+final class ConfigurationHistory
+{
+
+    private static final Log LOGGER = LogFactory.getLog( ConfigurationHistory.class );
+
+    static final int DEFAULT_SIZE = 5;
+
+    /**
+     * Marks a key that did not exist in the older version.
+     */
+    private static final Object REMOVED = new Object();
+
+    private final int m_size;
+    private final Map<String, Versions> m_versions;
+
+    /**
+     * @param size Number of older versions kept per service pid. {@code 0} or less keeps the latest version only.
+     */
+    ConfigurationHistory( int size )
+    {
+        m_size = size;
+        m_versions = new HashMap<String, Versions>();
+    }
+
+    /**
+     * Creates a history sized by {@link ConfigurationAdminFacade#BUNDLES_CONFIGURATION_HISTORY_SIZE}.
+     *
+     * @param resolver The property resolver. This argument must not be {@code null}.
+     *
+     * @return The history.
+     */
+    static ConfigurationHistory create( ConfigurationAdminFacade.PropertyResolver resolver )
+    {
+        String value = resolver.getProperty( ConfigurationAdminFacade.BUNDLES_CONFIGURATION_HISTORY_SIZE );
+        int size = DEFAULT_SIZE;
+        if( value != null && value.trim().length() > 0 )
+        {
+            try
+            {
+                size = Integer.parseInt( value.trim() );
+            }
+            catch( NumberFormatException e )
+            {
+                LOGGER.warn( "Invalid value [" + value + "] for property ["
+                    + ConfigurationAdminFacade.BUNDLES_CONFIGURATION_HISTORY_SIZE + "]. Using [" + size + "]." );
+            }
+        }
+        return new ConfigurationHistory( size );
+    }
+
+    /**
+     * Records that the specified {@code properties} were pushed for {@code servicePid}.
+     *
+     * @param servicePid The service pid. This argument must not be {@code null}.
+     * @param isFactory  {@code true} if the properties are a managed service factory configuration.
+     * @param properties The pushed properties. This argument must not be {@code null}.
+     */
+    final void record( String servicePid, boolean isFactory, Properties properties )
+    {
+        NullArgumentException.validateNotNull( servicePid, "servicePid" );
+        NullArgumentException.validateNotNull( properties, "properties" );
+
+        synchronized( m_versions )
+        {
+            Versions versions = m_versions.get( servicePid );
+            if( versions == null )
+            {
+                versions = new Versions();
+                m_versions.put( servicePid, versions );
+            }
+            else if( m_size > 0 )
+            {
+                Map<String, Object> reverse = diff( properties, versions.m_current );
+                if( reverse.isEmpty() )
+                {
+                    return;
+                }
+                versions.m_reverse.addFirst( reverse );
+                if( versions.m_reverse.size() > m_size )
+                {
+                    versions.m_reverse.removeLast();
+                }
+            }
+            versions.m_factory = isFactory;
+            versions.m_current = copy( properties );
+        }
+    }
+
+    /**
+     * @return the number of older versions of {@code servicePid} that can be rolled back to.
+     */
+    final int getDepth( String servicePid )
+    {
+        synchronized( m_versions )
+        {
+            Versions versions = m_versions.get( servicePid );
+            return versions == null ? 0 : versions.m_reverse.size();
+        }
+    }
+
+    /**
+     * @return a copy of the latest version recorded for {@code servicePid}, {@code null} if none was recorded.
+     */
+    final Properties getCurrent( String servicePid )
+    {
+        synchronized( m_versions )
+        {
+            Versions versions = m_versions.get( servicePid );
+            return versions == null ? null : copy( versions.m_current );
+        }
+    }
+
+    /**
+     * @return {@code true} if the history of {@code servicePid} holds a managed service factory configuration.
+     */
+    final boolean isFactory( String servicePid )
+    {
+        synchronized( m_versions )
+        {
+            Versions versions = m_versions.get( servicePid );
+            return versions != null && versions.m_factory;
+        }
+    }
+
+    /**
+     * Returns the version of {@code servicePid} pushed {@code steps} pushes ago, without changing the history.
+     *
+     * @param servicePid The service pid. This argument must not be {@code null}.
+     * @param steps      Number of versions to go back, at least {@code 1}.
+     *
+     * @return The older version.
+     *
+     * @throws IllegalArgumentException Thrown if the history does not go back {@code steps} versions.
+     */
+    final Properties getVersion( String servicePid, int steps )
+        throws IllegalArgumentException
+    {
+        NullArgumentException.validateNotNull( servicePid, "servicePid" );
+
+        synchronized( m_versions )
+        {
+            Versions versions = m_versions.get( servicePid );
+            int depth = versions == null ? 0 : versions.m_reverse.size();
+            if( steps < 1 || steps > depth )
+            {
+                throw new IllegalArgumentException( "Can not roll back [" + servicePid + "] by [" + steps
+                    + "] versions, [" + depth + "] versions are available." );
+            }
+
+            Properties version = copy( versions.m_current );
+            for( int i = 0; i < steps; i++ )
+            {
+                for( Map.Entry<String, Object> entry : versions.m_reverse.get( i ).entrySet() )
+                {
+                    if( entry.getValue() == REMOVED )
+                    {
+                        version.remove( entry.getKey() );
+                    }
+                    else
+                    {
+                        version.put( entry.getKey(), entry.getValue() );
+                    }
+                }
+            }
+            return version;
+        }
+    }
+
+    /**
+     * Records that {@code servicePid} was rolled back by {@code steps} versions. The rolled back versions are dropped,
+     * so that a further rollback goes back further still.
+     */
+    final void rolledBack( String servicePid, int steps )
+    {
+        synchronized( m_versions )
+        {
+            Properties version = getVersion( servicePid, steps );
+            Versions versions = m_versions.get( servicePid );
+            for( int i = 0; i < steps; i++ )
+            {
+                versions.m_reverse.removeFirst();
+            }
+            versions.m_current = version;
+        }
+    }
+
+    final void clear()
+    {
+        synchronized( m_versions )
+        {
+            m_versions.clear();
+        }
+    }
+
+    /**
+     * Computes the changes that turn {@code newer} back into {@code older}.
+     */
+    private static Map<String, Object> diff( Properties newer, Properties older )
+    {
+        Map<String, Object> reverse = new HashMap<String, Object>();
+        for( Map.Entry<Object, Object> entry : older.entrySet() )
+        {
+            if( !entry.getValue().equals( newer.get( entry.getKey() ) ) )
+            {
+                reverse.put( String.valueOf( entry.getKey() ), entry.getValue() );
+            }
+        }
+        for( Object key : newer.keySet() )
+        {
+            if( !older.containsKey( key ) )
+            {
+                reverse.put( String.valueOf( key ), REMOVED );
+            }
+        }
+        return reverse;
+    }
+
+    private static Properties copy( Properties properties )
+    {
+        Properties copy = new Properties();
+        copy.putAll( properties );
+        return copy;
+    }
+
+    private static final class Versions
+    {
+
+        private boolean m_factory;
+        private Properties m_current;
+        private final LinkedList<Map<String, Object>> m_reverse = new LinkedList<Map<String, Object>>();
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.ops4j.lang.NullArgumentException;
+
+/**
+ * {@code ConfigurationIndex} keeps track of what the loader did with every service pid it has seen: the file the
+ * configuration came from, the fingerprint of the last pushed dictionary, when it was pushed and whether the last pass
+ * applied or skipped it.
+ */
+final class ConfigurationIndex
+{
+
+    /**
+     * Outcome of the last pass for a service pid.
+     */
+    static enum State
+    {
+        APPLIED, SKIPPED
+    }
+
+    private final Map<String, Entry> m_entries;
+
+    ConfigurationIndex()
+    {
+        m_entries = new TreeMap<String, Entry>();
+    }
+
+    /**
+     * Records that the configuration of the specified {@code servicePid} was pushed.
+     *
+     * @param servicePid        The service pid. This argument must not be {@code null}.
+     * @param fileName          The name of the file the configuration was loaded from.
+     * @param isFactory         {@code true} if the configuration is a managed service factory configuration.
+     * @param fingerprint       The fingerprint of the pushed dictionary.
+     * @param sourceFingerprint The fingerprint of the file the dictionary was loaded from.
+     */
+    final void applied( String servicePid, String fileName, boolean isFactory, long fingerprint,
+        long sourceFingerprint )
+    {
+        NullArgumentException.validateNotNull( servicePid, "servicePid" );
+
+        synchronized( m_entries )
+        {
+            Entry entry = getOrCreate( servicePid, fileName, isFactory );
+            entry.m_fingerprint = fingerprint;
+            entry.m_sourceFingerprint = sourceFingerprint;
+            entry.m_lastPushed = System.currentTimeMillis();
+            entry.m_state = State.APPLIED;
+        }
+    }
+
+    /**
+     * Records that the configuration of the specified {@code servicePid} was skipped because it already exists.
+     *
+     * @param servicePid The service pid. This argument must not be {@code null}.
+     * @param fileName   The name of the file the configuration would have been loaded from.
+     * @param isFactory  {@code true} if the configuration is a managed service factory configuration.
+     */
+    final void skipped( String servicePid, String fileName, boolean isFactory )
+    {
+        NullArgumentException.validateNotNull( servicePid, "servicePid" );
+
+        synchronized( m_entries )
+        {
+            getOrCreate( servicePid, fileName, isFactory ).m_state = State.SKIPPED;
+        }
+    }
+
+    private Entry getOrCreate( String servicePid, String fileName, boolean isFactory )
+    {
+        Entry entry = m_entries.get( servicePid );
+        if( entry == null )
+        {
+            entry = new Entry( servicePid );
+            m_entries.put( servicePid, entry );
+        }
+        entry.m_fileName = fileName;
+        entry.m_factory = isFactory;
+        return entry;
+    }
+
+    /**
+     * Returns a copy of the entry of the specified {@code servicePid}, or {@code null} if the pid is not known.
+     *
+     * @param servicePid The service pid.
+     *
+     * @return The entry.
+     */
+    final Entry get( String servicePid )
+    {
+        synchronized( m_entries )
+        {
+            Entry entry = m_entries.get( servicePid );
+            return entry == null ? null : entry.copy();
+        }
+    }
+
+    /**
+     * Returns copies of the entries whose service pid matches {@code pattern}, ordered by service pid.
+     *
+     * @param pattern The pattern to match, or {@code null} to return all entries.
+     * @param offset  Number of matching entries to skip.
+     * @param limit   Maximum number of entries to return, {@code -1} for all.
+     *
+     * @return The matching entries.
+     */
+    final List<Entry> entries( Pattern pattern, int offset, int limit )
+    {
+        List<Entry> result = new ArrayList<Entry>();
+        synchronized( m_entries )
+        {
+            int matched = 0;
+            for( Entry entry : m_entries.values() )
+            {
+                if( pattern != null && !pattern.matcher( entry.m_servicePid ).matches() )
+                {
+                    continue;
+                }
+                if( matched++ < offset )
+                {
+                    continue;
+                }
+                if( limit >= 0 && result.size() >= limit )
+                {
+                    break;
+                }
+                result.add( entry.copy() );
+            }
+        }
+        return result;
+    }
+
+    final void clear()
+    {
+        synchronized( m_entries )
+        {
+            m_entries.clear();
+        }
+    }
+
+    /**
+     * Computes a fingerprint of the specified {@code dictionary} that does not depend on the iteration order of its
+     * keys.
+     *
+     * @param dictionary The dictionary. This argument must not be {@code null}.
+     *
+     * @return The fingerprint.
+     */
+    static long fingerprint( Dictionary dictionary )
+    {
+        NullArgumentException.validateNotNull( dictionary, "dictionary" );
+
+        String[] keys = new String[dictionary.size()];
+        int i = 0;
+        for( Enumeration e = dictionary.keys(); e.hasMoreElements(); )
+        {
+            keys[ i++ ] = String.valueOf( e.nextElement() );
+        }
+        Arrays.sort( keys );
+
+        CRC32 crc = new CRC32();
+        for( String key : keys )
+        {
+            update( crc, key );
+            crc.update( '=' );
+            update( crc, String.valueOf( dictionary.get( key ) ) );
+            crc.update( '\n' );
+        }
+        return crc.getValue();
+    }
+
+    private static void update( CRC32 crc, String value )
+    {
+        for( int i = 0; i < value.length(); i++ )
+        {
+            char c = value.charAt( i );
+            crc.update( c >>> 8 );
+            crc.update( c );
+        }
+    }
+
+    /**
+     * Loader state of a single service pid.
+     */
+    static final class Entry
+    {
+
+        private final String m_servicePid;
+        private String m_fileName;
+        private boolean m_factory;
+        private long m_fingerprint;
+        private long m_sourceFingerprint;
+        private long m_lastPushed;
+        private State m_state;
+
+        private Entry( String servicePid )
+        {
+            m_servicePid = servicePid;
+        }
+
+        private Entry copy()
+        {
+            Entry copy = new Entry( m_servicePid );
+            copy.m_fileName = m_fileName;
+            copy.m_factory = m_factory;
+            copy.m_fingerprint = m_fingerprint;
+            copy.m_sourceFingerprint = m_sourceFingerprint;
+            copy.m_lastPushed = m_lastPushed;
+            copy.m_state = m_state;
+            return copy;
+        }
+
+        final String getServicePid()
+        {
+            return m_servicePid;
+        }
+
+        final String getFileName()
+        {
+            return m_fileName;
+        }
+
+        final boolean isFactory()
+        {
+            return m_factory;
+        }
+
+        /**
+         * @return the fingerprint of the last pushed dictionary, {@code 0} if it was never pushed by this loader.
+         */
+        final long getFingerprint()
+        {
+            return m_fingerprint;
+        }
+
+        /**
+         * @return the fingerprint of the file the last pushed dictionary was loaded from.
+         */
+        final long getSourceFingerprint()
+        {
+            return m_sourceFingerprint;
+        }
+
+        /**
+         * @return the time in milliseconds of the last push, {@code 0} if it was never pushed by this loader.
+         */
+        final long getLastPushed()
+        {
+            return m_lastPushed;
+        }
+
+        final State getState()
+        {
+            return m_state;
+        }
+    }
+}
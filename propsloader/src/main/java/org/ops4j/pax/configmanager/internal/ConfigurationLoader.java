@@ -0,0 +1,222 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ops4j.lang.NullArgumentException;
+
+/**
+ * {@code ConfigurationLoader} runs the loads of the configuration area on a single loader thread, so that service
+ * tracker callbacks, which run on the framework event thread, return immediately.
+ * <p>
+ * Loads run one at a time in the order they were requested, so a load requested after a handler was added or removed
+ * sees that handler change. A load that is requested while the same kind of load is still waiting to run is merged
+ * into it. {@link #close()} interrupts the running load and drops the waiting ones.
+ * <p>
+ * If the configuration area is a configuration store directory, the loader also checks it for a newer snapshot every
+ * {@link ConfigurationAdminFacade#BUNDLES_CONFIGURATION_SNAPSHOT_INTERVAL} seconds, and requests a load when one
+ * appeared.
+ */
+final class ConfigurationLoader
+{
+
+    private static final Log LOGGER = LogFactory.getLog( ConfigurationLoader.class );
+
+    private static final String THREAD_NAME = "pax-confman-loader";
+    private static final long STOP_TIMEOUT = 10;
+
+    private final ConfigurationAdminFacade m_facade;
+    private final ScheduledExecutorService m_executor;
+    private boolean m_reloadPending;
+    private boolean m_restorePending;
+
+    /**
+     * @param facade The facade. This argument must not be {@code null}.
+     */
+    ConfigurationLoader( ConfigurationAdminFacade facade )
+    {
+        NullArgumentException.validateNotNull( facade, "facade" );
+
+        m_facade = facade;
+        m_executor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+        {
+
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, THREAD_NAME );
+                thread.setDaemon( true );
+                return thread;
+            }
+        }
+        );
+
+        long interval = facade.getSnapshotInterval();
+        if( interval > 0 )
+        {
+            m_executor.scheduleWithFixedDelay( new Runnable()
+            {
+
+                public void run()
+                {
+                    try
+                    {
+                        if( m_facade.hasNewerSnapshot() )
+                        {
+                            LOGGER.info( "A newer configuration snapshot is available." );
+                            reload();
+                        }
+                    }
+                    catch( RuntimeException e )
+                    {
+                        // Keep the check scheduled
+                        LOGGER.warn( "Can't check for a newer configuration snapshot", e );
+                    }
+                }
+            }, interval, interval, TimeUnit.SECONDS
+            );
+        }
+    }
+
+    /**
+     * Requests a load of the configurations the configuration admin service does not hold yet, see
+     * {@link ConfigurationAdminFacade#registerConfigurations(String, boolean)}.
+     */
+    final void reload()
+    {
+        synchronized( this )
+        {
+            if( m_reloadPending )
+            {
+                return;
+            }
+            m_reloadPending = true;
+        }
+
+        execute( new Runnable()
+        {
+
+            public void run()
+            {
+                synchronized( ConfigurationLoader.this )
+                {
+                    m_reloadPending = false;
+                }
+                try
+                {
+                    m_facade.registerConfigurations( null, false );
+                }
+                catch( InterruptedIOException e )
+                {
+                    LOGGER.debug( "Loading configuration was cancelled." );
+                }
+                catch( IllegalStateException e )
+                {
+                    LOGGER.debug( "Configuration admin service went away while loading configuration", e );
+                }
+                catch( Throwable e )
+                {
+                    LOGGER.error( "Can't load configuration", e );
+                }
+            }
+        }
+        );
+    }
+
+    /**
+     * Requests the configuration admin service to be brought up to date after it changed, see
+     * {@link ConfigurationAdminFacade#restoreConfigurations()}.
+     */
+    final void restore()
+    {
+        synchronized( this )
+        {
+            if( m_restorePending )
+            {
+                return;
+            }
+            m_restorePending = true;
+        }
+
+        execute( new Runnable()
+        {
+
+            public void run()
+            {
+                synchronized( ConfigurationLoader.this )
+                {
+                    m_restorePending = false;
+                }
+                try
+                {
+                    m_facade.restoreConfigurations();
+                }
+                catch( InterruptedIOException e )
+                {
+                    LOGGER.debug( "Loading configuration was cancelled." );
+                }
+                catch( IllegalStateException e )
+                {
+                    // Switched away again in the meantime
+                    LOGGER.debug( "Configuration admin service went away while loading configuration", e );
+                }
+                catch( Throwable e )
+                {
+                    LOGGER.error( "Can't load configuration", e );
+                }
+            }
+        }
+        );
+    }
+
+    /**
+     * Interrupts the running load, drops the waiting ones and waits for the loader thread to finish.
+     */
+    final void close()
+    {
+        m_executor.shutdownNow();
+        try
+        {
+            if( !m_executor.awaitTermination( STOP_TIMEOUT, TimeUnit.SECONDS ) )
+            {
+                LOGGER.warn( "Configuration loader did not stop within [" + STOP_TIMEOUT + "] seconds." );
+            }
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void execute( Runnable task )
+    {
+        try
+        {
+            m_executor.execute( task );
+        }
+        catch( RejectedExecutionException e )
+        {
+            LOGGER.debug( "Configuration loader is closed, load is dropped." );
+        }
+    }
+}
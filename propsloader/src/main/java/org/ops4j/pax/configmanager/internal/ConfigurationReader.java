@@ -0,0 +1,236 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import org.ops4j.lang.NullArgumentException;
+
+/**
+ * {@code ConfigurationReader} reads the contents of configuration entries on behalf of the resource handlers, so that
+ * buffering and fingerprinting happen in one place.
+ * <p>
+ * Entries up to {@value #MAX_POOLED_SIZE} bytes are read into a buffer that is reused by every pass of the same
+ * thread. Larger files are memory mapped; larger archive entries are read into a buffer of their own. The checksum of
+ * the contents is computed while reading and used as the fingerprint of the entry.
+ */
+final class ConfigurationReader
+{
+
+    private static final int MAX_POOLED_SIZE = 1024 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    private final ThreadLocal<byte[]> m_buffers;
+
+    ConfigurationReader()
+    {
+        m_buffers = new ThreadLocal<byte[]>()
+        {
+
+            @Override
+            protected byte[] initialValue()
+            {
+                return new byte[INITIAL_BUFFER_SIZE];
+            }
+        };
+    }
+
+    /**
+     * Reads the contents of the specified {@code entry}. The returned contents are only valid until the next call of
+     * this method by the same thread.
+     *
+     * @param entry The entry. This argument must not be {@code null}.
+     *
+     * @return The contents.
+     *
+     * @throws IOException Thrown if the entry can not be read.
+     */
+    final Contents read( ConfigurationEntry entry )
+        throws IOException
+    {
+        NullArgumentException.validateNotNull( entry, "entry" );
+
+        File file = entry.getFile();
+        if( file != null && entry.getSize() > MAX_POOLED_SIZE )
+        {
+            return map( file );
+        }
+
+        byte[] buffer = m_buffers.get();
+        if( entry.getSize() > buffer.length && entry.getSize() <= MAX_POOLED_SIZE )
+        {
+            buffer = new byte[(int) entry.getSize()];
+            m_buffers.set( buffer );
+        }
+
+        int length = 0;
+        InputStream stream = entry.openStream();
+        try
+        {
+            int read;
+            while( ( read = stream.read( buffer, length, buffer.length - length ) ) != -1 )
+            {
+                length += read;
+                if( length == buffer.length )
+                {
+                    byte[] grown = new byte[buffer.length * 2];
+                    System.arraycopy( buffer, 0, grown, 0, length );
+                    buffer = grown;
+                    if( buffer.length <= MAX_POOLED_SIZE )
+                    {
+                        m_buffers.set( buffer );
+                    }
+                }
+            }
+        }
+        finally
+        {
+            stream.close();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update( buffer, 0, length );
+        return new Contents( crc.getValue(), new ByteArrayInputStream( buffer, 0, length ) );
+    }
+
+    private Contents map( File file )
+        throws IOException
+    {
+        MappedByteBuffer mapped;
+        FileInputStream stream = new FileInputStream( file );
+        try
+        {
+            FileChannel channel = stream.getChannel();
+            mapped = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+        }
+        finally
+        {
+            // The mapping stays valid after the channel is closed
+            stream.close();
+        }
+
+        byte[] chunk = m_buffers.get();
+        CRC32 crc = new CRC32();
+        ByteBuffer checksummed = mapped.duplicate();
+        while( checksummed.hasRemaining() )
+        {
+            int length = Math.min( chunk.length, checksummed.remaining() );
+            checksummed.get( chunk, 0, length );
+            crc.update( chunk, 0, length );
+        }
+        return new Contents( crc.getValue(), new ByteBufferInputStream( mapped ) );
+    }
+
+    /**
+     * Returns a fingerprint of the specified {@code entry} without reading it, based on its size and last
+     * modification time.
+     *
+     * @param entry The entry. This argument must not be {@code null}.
+     *
+     * @return The fingerprint.
+     */
+    static long stamp( ConfigurationEntry entry )
+    {
+        return entry.getLastModified() * 31 + entry.getSize();
+    }
+
+    /**
+     * The contents of a configuration entry.
+     */
+    static final class Contents
+    {
+
+        private final long m_checksum;
+        private final InputStream m_stream;
+
+        private Contents( long checksum, InputStream stream )
+        {
+            m_checksum = checksum;
+            m_stream = stream;
+        }
+
+        /**
+         * @return the CRC-32 checksum of the contents.
+         */
+        final long getChecksum()
+        {
+            return m_checksum;
+        }
+
+        /**
+         * @return a stream over the contents. Closing it is not required.
+         */
+        final InputStream getStream()
+        {
+            return m_stream;
+        }
+    }
+
+    /**
+     * An {@code InputStream} over a {@code ByteBuffer}.
+     */
+    private static final class ByteBufferInputStream extends InputStream
+    {
+
+        private final ByteBuffer m_buffer;
+
+        private ByteBufferInputStream( ByteBuffer buffer )
+        {
+            m_buffer = buffer;
+        }
+
+        @Override
+        public final int read()
+        {
+            if( !m_buffer.hasRemaining() )
+            {
+                return -1;
+            }
+            return m_buffer.get() & 0xFF;
+        }
+
+        @Override
+        public final int read( byte[] bytes, int offset, int length )
+        {
+            if( length == 0 )
+            {
+                return 0;
+            }
+            if( !m_buffer.hasRemaining() )
+            {
+                return -1;
+            }
+
+            int count = Math.min( length, m_buffer.remaining() );
+            m_buffer.get( bytes, offset, count );
+            return count;
+        }
+
+        @Override
+        public final int available()
+        {
+            return m_buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.util.Hashtable;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ops4j.lang.NullArgumentException;
+import org.ops4j.pax.configmanager.IConfigurationReadiness;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * {@code ConfigurationReadiness} registers the {@link IConfigurationReadiness} service when the first load of the
+ * whole configuration area completes, and forwards the progress of the loader as events if EventAdmin is available.
+ */
+final class ConfigurationReadiness
+    implements IConfigurationReadiness, ConfigurationAdminFacade.LoadListener
+{
+
+    private static final Log LOGGER = LogFactory.getLog( ConfigurationReadiness.class );
+
+    private final BundleContext m_context;
+    private final ConfigurationAdminFacade m_facade;
+    private ConfigurationEventPublisher m_publisher;
+    private ServiceRegistration m_registration;
+    private boolean m_closed;
+    private int m_pushed;
+    private int m_skipped;
+    private int m_failed;
+    private long m_duration;
+
+    /**
+     * @param context The bundle context. This argument must not be {@code null}.
+     * @param facade  The facade. This argument must not be {@code null}.
+     */
+    ConfigurationReadiness( BundleContext context, ConfigurationAdminFacade facade )
+    {
+        NullArgumentException.validateNotNull( context, "context" );
+        NullArgumentException.validateNotNull( facade, "facade" );
+
+        m_context = context;
+        m_facade = facade;
+        try
+        {
+            m_publisher = ConfigurationEventPublisher.open( context );
+        }
+        catch( NoClassDefFoundError e )
+        {
+            LOGGER.info( "EventAdmin is not available, configuration events are not posted." );
+        }
+    }
+
+    public void pushed( String servicePid, boolean isFactory )
+    {
+        ConfigurationEventPublisher publisher = getPublisher();
+        if( publisher != null )
+        {
+            Hashtable<String, Object> properties = new Hashtable<String, Object>();
+            properties.put( SERVICE_PID, servicePid );
+            properties.put( FACTORY, isFactory );
+            publisher.post( TOPIC_PUSHED, properties );
+        }
+    }
+
+    public void loaded( int pushed, int skipped, int failed, long duration )
+    {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put( PUSHED, pushed );
+        properties.put( SKIPPED, skipped );
+        properties.put( FAILED, failed );
+        properties.put( DURATION, duration );
+
+        synchronized( this )
+        {
+            if( m_registration == null && !m_closed )
+            {
+                m_pushed = pushed;
+                m_skipped = skipped;
+                m_failed = failed;
+                m_duration = duration;
+                m_registration = m_context.registerService( IConfigurationReadiness.class.getName(), this,
+                    new Hashtable<String, Object>( properties ) );
+                LOGGER.info( "Initial configuration load finished in [" + duration + "] ms: [" + pushed
+                    + "] pushed, [" + skipped + "] up to date, [" + failed + "] failed." );
+            }
+        }
+
+        ConfigurationEventPublisher publisher = getPublisher();
+        if( publisher != null )
+        {
+            publisher.post( TOPIC_LOADED, properties );
+        }
+    }
+
+    public synchronized int getPushedCount()
+    {
+        return m_pushed;
+    }
+
+    public synchronized int getSkippedCount()
+    {
+        return m_skipped;
+    }
+
+    public synchronized int getFailedCount()
+    {
+        return m_failed;
+    }
+
+    public synchronized long getDuration()
+    {
+        return m_duration;
+    }
+
+    public boolean isConfigured( String servicePid )
+    {
+        return m_facade.isConfigured( servicePid );
+    }
+
+    /**
+     * Unregisters the readiness service and stops posting events.
+     */
+    final synchronized void close()
+    {
+        m_closed = true;
+        if( m_registration != null )
+        {
+            m_registration.unregister();
+            m_registration = null;
+        }
+        if( m_publisher != null )
+        {
+            m_publisher.close();
+            m_publisher = null;
+        }
+    }
+
+    private synchronized ConfigurationEventPublisher getPublisher()
+    {
+        return m_publisher;
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ops4j.lang.NullArgumentException;
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * {@code ConfigurationSnapshotWriter} compiles a configuration area into a single versioned snapshot file that can be
+ * read by {@link SnapshotConfigurationSource}, and publishes it into a shared configuration store.
+ * <p>
+ * The snapshot is written to a temporary file in the store and renamed once complete, so readers never see a partial
+ * snapshot. Its version is reserved with a lock file in the store while it is written, so concurrent writers never
+ * publish the same version. It can be run as a build step:
+ * <pre>
+ * java -cp pax-confman-propsloader.jar org.ops4j.pax.configmanager.internal.ConfigurationSnapshotWriter \
+ *     &lt;configuration location&gt; &lt;store directory&gt; [version]
+ * </pre>
+ */
+final class ConfigurationSnapshotWriter
+{
+
+    private static final Log LOGGER = LogFactory.getLog( ConfigurationSnapshotWriter.class );
+
+    private ConfigurationSnapshotWriter()
+    {
+    }
+
+    /**
+     * Compiles all entries of {@code source} into a snapshot published in the {@code store} directory.
+     *
+     * @param source  The configuration to compile. This argument must not be {@code null}.
+     * @param store   The directory to publish the snapshot in. This argument must not be {@code null}.
+     * @param version The snapshot version, or {@code -1} to use the next version after the latest one in the store.
+     *
+     * @return The published snapshot file.
+     *
+     * @throws IOException Thrown if the configuration can not be read or the snapshot can not be written.
+     */
+    static File publish( ConfigurationSource source, File store, long version )
+        throws IOException
+    {
+        NullArgumentException.validateNotNull( source, "source" );
+        NullArgumentException.validateNotNull( store, "store" );
+
+        if( !store.isDirectory() && !store.mkdirs() )
+        {
+            throw new IOException( "Unable to create configuration store [" + store + "]." );
+        }
+
+        // The version is reserved by atomically creating a lock file, so that concurrent writers never publish the
+        // same version; a rename would silently replace a snapshot published in the meantime
+        boolean next = version < 0;
+        if( next )
+        {
+            File latest = SnapshotConfigurationSource.findLatest( store );
+            version = latest == null ? 1 : SnapshotConfigurationSource.getVersion( latest ) + 1;
+        }
+        File target;
+        File lock;
+        while( true )
+        {
+            target = new File( store, SnapshotConfigurationSource.FILE_NAME_PREFIX + version
+                + SnapshotConfigurationSource.FILE_NAME_SUFFIX );
+            lock = new File( store, "." + target.getName() + ".lock" );
+            if( lock.createNewFile() )
+            {
+                if( !target.exists() )
+                {
+                    break;
+                }
+                lock.delete();
+            }
+            if( !next )
+            {
+                throw new IOException( "Configuration snapshot [" + target + "] already exists or is being published"
+                    + " (lock file [" + lock + "])." );
+            }
+            version++;
+        }
+
+        try
+        {
+            publish( source, store, version, target );
+        }
+        finally
+        {
+            lock.delete();
+        }
+        return target;
+    }
+
+    private static void publish( ConfigurationSource source, File store, long version, File target )
+        throws IOException
+    {
+        final List<ConfigurationEntry> entries = new ArrayList<ConfigurationEntry>();
+        ConfigurationSource.Visitor collector = new ConfigurationSource.Visitor()
+        {
+
+            public boolean visit( ConfigurationEntry entry )
+            {
+                entries.add( entry );
+                return true;
+            }
+        };
+        try
+        {
+            source.visit( true, collector );
+            source.visit( false, collector );
+        }
+        catch( InvalidSyntaxException e )
+        {
+            // Not thrown by the collector
+            throw new IllegalStateException( e.getMessage() );
+        }
+
+        File temp = new File( store, "." + target.getName() + ".tmp" );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ) ) );
+        try
+        {
+            write( out, version, entries );
+        }
+        catch( IOException e )
+        {
+            out.close();
+            temp.delete();
+            throw e;
+        }
+        out.close();
+
+        if( !temp.renameTo( target ) )
+        {
+            temp.delete();
+            throw new IOException( "Unable to publish configuration snapshot [" + target + "]." );
+        }
+
+        LOGGER.info( "Published configuration snapshot [" + target + "] with [" + entries.size() + "] entries." );
+    }
+
+    private static void write( DataOutputStream out, long version, List<ConfigurationEntry> entries )
+        throws IOException
+    {
+        // The index precedes the contents, so every entry is read twice: once for its checksum and length, and once
+        // to copy it. This keeps memory use independent of the size of the configuration.
+        byte[] buffer = new byte[8 * 1024];
+        long[] checksums = new long[entries.size()];
+        int[] lengths = new int[entries.size()];
+        for( int i = 0; i < entries.size(); i++ )
+        {
+            CRC32 crc = new CRC32();
+            InputStream in = entries.get( i ).openStream();
+            try
+            {
+                int read;
+                while( ( read = in.read( buffer ) ) != -1 )
+                {
+                    crc.update( buffer, 0, read );
+                    lengths[ i ] += read;
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+            checksums[ i ] = crc.getValue();
+        }
+
+        out.writeInt( SnapshotConfigurationSource.MAGIC );
+        out.writeInt( SnapshotConfigurationSource.FORMAT_VERSION );
+        out.writeLong( version );
+        out.writeInt( entries.size() );
+        for( int i = 0; i < entries.size(); i++ )
+        {
+            ConfigurationEntry entry = entries.get( i );
+            out.writeBoolean( entry.isFactory() );
+            out.writeUTF( entry.getName() );
+            out.writeLong( entry.getLastModified() );
+            out.writeLong( checksums[ i ] );
+            out.writeInt( lengths[ i ] );
+        }
+
+        for( int i = 0; i < entries.size(); i++ )
+        {
+            int remaining = lengths[ i ];
+            InputStream in = entries.get( i ).openStream();
+            try
+            {
+                int read;
+                while( remaining > 0 && ( read = in.read( buffer, 0, Math.min( buffer.length, remaining ) ) ) != -1 )
+                {
+                    out.write( buffer, 0, read );
+                    remaining -= read;
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+
+            if( remaining != 0 )
+            {
+                throw new IOException( "[" + entries.get( i ) + "] changed while compiling the snapshot." );
+            }
+        }
+    }
+
+    /**
+     * Compiles a configuration directory or archive into a snapshot.
+     *
+     * @param args configuration location, store directory and optionally the snapshot version.
+     *
+     * @throws IOException Thrown if the snapshot can not be written.
+     */
+    public static void main( String[] args )
+        throws IOException
+    {
+        if( args.length < 2 || args.length > 3 )
+        {
+            System.err.println( "Usage: " + ConfigurationSnapshotWriter.class.getName()
+                + " <configuration location> <store directory> [version]" );
+            System.exit( 1 );
+        }
+
+        File location = new File( args[ 0 ] );
+        ConfigurationSource source;
+        if( ArchiveConfigurationSource.isArchive( location ) )
+        {
+            source = new ArchiveConfigurationSource( location );
+        }
+        else
+        {
+            source = new DirectoryConfigurationSource( location );
+        }
+
+        try
+        {
+            long version = args.length == 3 ? Long.parseLong( args[ 2 ] ) : -1;
+            File snapshot = publish( source, new File( args[ 1 ] ), version );
+            System.out.println( snapshot.getAbsolutePath() );
+        }
+        finally
+        {
+            source.close();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.io.IOException;
+
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * {@code ConfigurationSource} gives access to the {@code factories} and {@code services} configuration files of a
+ * configuration area, regardless of whether they are stored in a directory or in configuration archives.
+ */
+interface ConfigurationSource
+{
+
+    /**
+     * @return a description of where the configuration is read from.
+     */
+    String getLocation();
+
+    /**
+     * Visits the entries of the {@code factories} or the {@code services} directory one at a time.
+     *
+     * @param isFactory {@code true} to visit the {@code factories} entries.
+     * @param visitor   The visitor. This argument must not be {@code null}.
+     *
+     * @throws IOException            Thrown if the source or the visitor fails to read an entry.
+     * @throws InvalidSyntaxException Thrown by the visitor.
+     */
+    void visit( boolean isFactory, Visitor visitor )
+        throws IOException, InvalidSyntaxException;
+
+    /**
+     * Returns the entry with the specified {@code path}, e.g. {@code services/my.pid.properties}, or {@code null} if
+     * there is no such entry.
+     *
+     * @param path The path. This argument must not be {@code null}.
+     *
+     * @return The entry.
+     *
+     * @throws IOException Thrown if the source can not be read.
+     */
+    ConfigurationEntry getEntry( String path )
+        throws IOException;
+
+    /**
+     * @return {@code true} if the configuration area is a change set, i.e. all its configuration must be applied
+     *         together or not at all.
+     */
+    boolean isChangeSet();
+
+    /**
+     * Releases resources held by this source. The source must not be used afterwards.
+     */
+    void close();
+
+    /**
+     * Callback of {@link ConfigurationSource#visit(boolean, Visitor)}.
+     */
+    static interface Visitor
+    {
+
+        /**
+         * @param entry The visited entry.
+         *
+         * @return {@code false} to stop visiting further entries.
+         */
+        boolean visit( ConfigurationEntry entry )
+            throws IOException, InvalidSyntaxException;
+    }
+}
@@ -2,6 +2,7 @@ package org.ops4j.pax.configmanager.internal;
 
 import java.io.IOException;
 
+import org.ops4j.pax.configmanager.ConfigurationDiff;
 import org.ops4j.pax.configmanager.IConfigurationUpdater;
 import org.osgi.framework.InvalidSyntaxException;
 
@@ -24,4 +25,21 @@ public class ConfigurationUpdater
     {
         this.m_adminFacade.registerConfigurations( servicePid, true );
     }
+
+    public ConfigurationDiff diffConfiguration( final String servicePid )
+        throws IllegalStateException,
+        IOException,
+        InvalidSyntaxException
+    {
+        return this.m_adminFacade.registerConfigurations( servicePid, true, true );
+    }
+
+    public void rollbackConfiguration( final String servicePid, final int steps )
+        throws IllegalArgumentException,
+        IllegalStateException,
+        IOException,
+        InvalidSyntaxException
+    {
+        this.m_adminFacade.rollbackConfiguration( servicePid, steps );
+    }
 }
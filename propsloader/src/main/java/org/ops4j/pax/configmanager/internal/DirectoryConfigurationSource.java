@@ -0,0 +1,151 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ops4j.lang.NullArgumentException;
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * {@code DirectoryConfigurationSource} reads configuration files from the {@code factories} and {@code services}
+ * sub directories of a configuration directory.
+ */
+final class DirectoryConfigurationSource
+    implements ConfigurationSource
+{
+
+    private static final Log LOGGER = LogFactory.getLog( DirectoryConfigurationSource.class );
+
+    private final File m_configDir;
+
+    DirectoryConfigurationSource( File configDir )
+    {
+        NullArgumentException.validateNotNull( configDir, "configDir" );
+        m_configDir = configDir;
+    }
+
+    public final String getLocation()
+    {
+        return m_configDir.getAbsolutePath();
+    }
+
+    public final void visit( boolean isFactory, Visitor visitor )
+        throws IOException, InvalidSyntaxException
+    {
+        File dir = getDirectory( isFactory );
+        if( !dir.exists() )
+        {
+            LOGGER.info( "Directory [" + dir + "] does not exist." );
+            return;
+        }
+
+        String[] files = dir.list();
+        if( files == null )
+        {
+            throw new IOException( "Unable to list directory [" + dir + "]." );
+        }
+
+        for( String fileName : files )
+        {
+            File file = new File( dir, fileName );
+            if( !file.isDirectory() && !visitor.visit( new FileEntry( file, isFactory ) ) )
+            {
+                return;
+            }
+        }
+    }
+
+    public final ConfigurationEntry getEntry( String path )
+    {
+        NullArgumentException.validateNotNull( path, "path" );
+
+        File file = new File( m_configDir, path );
+        File parent = file.getParentFile();
+        if( !file.isFile() || parent == null )
+        {
+            return null;
+        }
+
+        if( parent.equals( getDirectory( true ) ) )
+        {
+            return new FileEntry( file, true );
+        }
+        if( parent.equals( getDirectory( false ) ) )
+        {
+            return new FileEntry( file, false );
+        }
+        return null;
+    }
+
+    public final boolean isChangeSet()
+    {
+        return new File( m_configDir, ConfigurationAdminFacade.CHANGESET_MARKER ).isFile();
+    }
+
+    private File getDirectory( boolean isFactory )
+    {
+        if( isFactory )
+        {
+            return new File( m_configDir, ConfigurationAdminFacade.DIRECTORY_NAME_FACTORIES );
+        }
+        return new File( m_configDir, ConfigurationAdminFacade.DIRECTORY_NAME_SERVICES );
+    }
+
+    public final void close()
+    {
+        // Nothing to release
+    }
+
+    /**
+     * A configuration file on disk.
+     */
+    private final class FileEntry extends ConfigurationEntry
+    {
+
+        private final File m_file;
+
+        private FileEntry( File file, boolean isFactory )
+        {
+            super( file.getName(), isFactory, file.length(), file.lastModified() );
+            m_file = file;
+        }
+
+        @Override
+        final File getFile()
+        {
+            return m_file;
+        }
+
+        @Override
+        final ConfigurationSource getSource()
+        {
+            return DirectoryConfigurationSource.this;
+        }
+
+        @Override
+        final InputStream openStream()
+            throws IOException
+        {
+            return new FileInputStream( m_file );
+        }
+    }
+}
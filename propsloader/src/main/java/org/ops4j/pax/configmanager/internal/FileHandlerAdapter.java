@@ -0,0 +1,114 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.ops4j.lang.NullArgumentException;
+import org.ops4j.pax.configmanager.IConfigurationFileHandler;
+import org.ops4j.pax.configmanager.IConfigurationResource;
+import org.ops4j.pax.configmanager.IConfigurationResourceHandler;
+
+/**
+ * {@code FileHandlerAdapter} adapts an {@link IConfigurationFileHandler} to {@link IConfigurationResourceHandler}.
+ * <p>
+ * File handlers open files themselves, so the loader hands resources that are files on disk straight to
+ * {@link #handle(File)} without reading them first. Resources that are not files on disk, e.g. archive or snapshot
+ * entries, are not accepted, so that a stream-capable handler loads them instead.
+ */
+final class FileHandlerAdapter
+    implements IConfigurationResourceHandler
+{
+
+    private final IConfigurationFileHandler m_delegate;
+
+    FileHandlerAdapter( IConfigurationFileHandler delegate )
+    {
+        NullArgumentException.validateNotNull( delegate, "delegate" );
+        m_delegate = delegate;
+    }
+
+    public final String getServicePID( String fileName )
+    {
+        return m_delegate.getServicePID( fileName );
+    }
+
+    public final boolean canHandle( IConfigurationResource resource )
+    {
+        File file = getFile( resource );
+        return file != null && m_delegate.canHandle( file );
+    }
+
+    /**
+     * Always fails, file handlers can only load files on disk through {@link #handle(File)}. Not called for other
+     * resources, since {@link #canHandle(IConfigurationResource)} rejects them.
+     */
+    public final Properties handle( IConfigurationResource resource, InputStream stream )
+        throws IOException
+    {
+        throw new IOException( "Handler [" + m_delegate + "] can only load files on disk, not [" + resource + "]." );
+    }
+
+    /**
+     * Loads the specified {@code file} with the adapted handler.
+     *
+     * @param file The file. This argument must not be {@code null}.
+     *
+     * @return The properties, {@code null} if the handler failed to load the file.
+     */
+    final Properties handle( File file )
+    {
+        return m_delegate.handle( file );
+    }
+
+    /**
+     * @return the file on disk backing {@code resource}, {@code null} if there is none.
+     */
+    private static File getFile( IConfigurationResource resource )
+    {
+        if( resource instanceof ConfigurationEntry )
+        {
+            return ( (ConfigurationEntry) resource ).getFile();
+        }
+        return null;
+    }
+
+    final IConfigurationFileHandler getDelegate()
+    {
+        return m_delegate;
+    }
+
+    @Override
+    public final boolean equals( Object other )
+    {
+        return other instanceof FileHandlerAdapter && ( (FileHandlerAdapter) other ).m_delegate == m_delegate;
+    }
+
+    @Override
+    public final int hashCode()
+    {
+        return System.identityHashCode( m_delegate );
+    }
+
+    @Override
+    public final String toString()
+    {
+        return m_delegate.toString();
+    }
+}
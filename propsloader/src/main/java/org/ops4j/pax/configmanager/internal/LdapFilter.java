@@ -0,0 +1,61 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+/**
+ * {@code LdapFilter} builds the filters passed to {@code ConfigurationAdmin.listConfigurations}, escaping values so
+ * that a pid containing {@code *}, {@code (}, {@code )} or {@code \} matches only itself.
+ */
+final class LdapFilter
+{
+
+    private LdapFilter()
+    {
+    }
+
+    /**
+     * @return the filter {@code (key=value)} with {@code value} escaped.
+     */
+    static String equal( String key, String value )
+    {
+        return "(" + key + "=" + escape( value ) + ")";
+    }
+
+    /**
+     * @return the specified filter {@code value} with the characters that have a meaning in filters escaped.
+     */
+    static String escape( String value )
+    {
+        StringBuilder result = null;
+        for( int i = 0; i < value.length(); i++ )
+        {
+            char c = value.charAt( i );
+            if( c == '*' || c == '(' || c == ')' || c == '\\' )
+            {
+                if( result == null )
+                {
+                    result = new StringBuilder( value.length() + 8 ).append( value, 0, i );
+                }
+                result.append( '\\' );
+            }
+            if( result != null )
+            {
+                result.append( c );
+            }
+        }
+        return result == null ? value : result.toString();
+    }
+}
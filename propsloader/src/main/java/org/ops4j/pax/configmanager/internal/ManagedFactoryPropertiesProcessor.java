@@ -15,11 +15,15 @@
  */
 package org.ops4j.pax.configmanager.internal;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Dictionary;
 import java.util.Properties;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.ops4j.lang.NullArgumentException;
+import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.service.cm.ConfigurationAdmin;
 import org.osgi.service.cm.Configuration;
 
@@ -40,6 +44,9 @@ import org.osgi.service.cm.Configuration;
  * userid.2=edith
  * password.2=piaf
  * </pre>
+ * The configuration admin service generates the pids of factory instances, so every instance carries its instance
+ * number in the {@value #INSTANCE} property, by which later pushes and rollbacks, also after a restart, find and
+ * update the same instance.
  *
  * @author Gavin
  */
@@ -47,59 +54,201 @@ final class ManagedFactoryPropertiesProcessor
 {
     private static final Log LOGGER = LogFactory.getLog( ManagedFactoryPropertiesProcessor.class );
     public final static String[] EMPTY_STRING_ARRAY = new String[0];
-    
+
+    /**
+     * Property holding the instance number, starting at {@code 1}, within every factory instance this processor
+     * updates.
+     */
+    static final String INSTANCE = "org.ops4j.pax.configmanager.instance";
+
+    private final UpdateThrottle m_throttle;
+
     public ManagedFactoryPropertiesProcessor()
     {
+        this( UpdateThrottle.unlimited() );
+    }
+
+    /**
+     * @param throttle throttle every instance update is pushed through.
+     *
+     * @throws IllegalArgumentException if {@code throttle} is null
+     */
+    public ManagedFactoryPropertiesProcessor( UpdateThrottle throttle )
+    {
+        NullArgumentException.validateNotNull( throttle, "throttle" );
+        m_throttle = throttle;
     }
 
     /**
      * @param configAdminService 
      * @param servicePid the contents of key {@code service.pid} or the name of the property file.
      * 
+     * @return {@code true} if every instance was updated, {@code false} if an instance failed or the update was
+     *         interrupted.
+     *
      * @throws IllegalArgumentException if any one of the parameters is null
      */
-    final void process( ConfigurationAdmin configAdminService, String servicePid, Properties prop )
+    final boolean process( ConfigurationAdmin configAdminService, String servicePid, Properties prop )
     {
         NullArgumentException.validateNotNull( configAdminService, "configAdminService" );
         NullArgumentException.validateNotNull( servicePid, "servicePid" );
         
+        boolean complete = true;
+        Properties[] instances = split( prop );
+        for( int i=0; i<instances.length; i++ )
+        {
+            Properties instanceProps = instances[ i ];
+            LOGGER.debug( instanceProps );
+            try
+            {
+                updateInstance( configAdminService, servicePid, i, instanceProps );
+            } catch( InterruptedIOException e )
+            {
+                LOGGER.warn( "Interrupted while updating factory [" + servicePid + "]." );
+                return false;
+            } catch( Exception e )
+            {
+                LOGGER.error( e );
+                complete = false;
+                continue;
+            }                        
+        }
+        return complete;
+    }
+
+    /**
+     * Like {@link #process(ConfigurationAdmin, String, Properties)}, but stops at the first instance that fails to
+     * update instead of skipping it.
+     *
+     * @throws IOException if an instance fails to update
+     * @throws InvalidSyntaxException if {@code servicePid} results in an invalid filter
+     * @throws IllegalArgumentException if any one of the parameters is null
+     */
+    final void update( ConfigurationAdmin configAdminService, String servicePid, Properties prop )
+        throws IOException, InvalidSyntaxException
+    {
+        NullArgumentException.validateNotNull( configAdminService, "configAdminService" );
+        NullArgumentException.validateNotNull( servicePid, "servicePid" );
+
+        Properties[] instances = split( prop );
+        for( int i=0; i<instances.length; i++ )
+        {
+            LOGGER.debug( instances[ i ] );
+            updateInstance( configAdminService, servicePid, i, instances[ i ] );
+        }
+    }
+
+    private void updateInstance( ConfigurationAdmin configAdminService, String servicePid, int index,
+        Properties instanceProps )
+        throws IOException, InvalidSyntaxException
+    {
+        Configuration[] configs = findInstance( configAdminService, servicePid, index );
+
+        Configuration conf;
+
+        if( configs != null && configs.length > 0 )
+        {
+            conf = configs[ 0 ];
+            LOGGER.debug( "\tfound -> " + conf.getPid() );
+        }
+        else
+        {
+            conf = configAdminService.createFactoryConfiguration( servicePid, null );
+            LOGGER.debug( "\tcreate -> " + conf.getPid() );
+        }
+
+        instanceProps.put( INSTANCE, String.valueOf( index + 1 ) );
+        m_throttle.acquire();
+        try
+        {
+            conf.update( instanceProps );
+        }
+        finally
+        {
+            m_throttle.release();
+        }
+    }
+
+    /**
+     * Splits the specified factory {@code prop} into the properties of every instance.
+     *
+     * @param prop the contents of the factory configuration file.
+     *
+     * @return the instance properties, ordered by instance. Empty if {@code prop} is not a valid factory configuration.
+     */
+    final Properties[] split( Properties prop )
+    {
         if( ! validate( prop ))
-            return; // noop
-        
+            return new Properties[0];
+
         int numberOfInstances = getInstanceCount( prop );
         String[] keys = getKeys( prop );
 
+        Properties[] instances = new Properties[ numberOfInstances ];
         for( int i=1; i<numberOfInstances+1; i++ )
         {
-            Properties instanceProps = filterProps( keys, prop, i );
-            LOGGER.debug( instanceProps );
+            instances[ i-1 ] = filterProps( keys, prop, i );
+        }
+        return instances;
+    }
+
+    /**
+     * Deletes the instances of the factory {@code servicePid} whose {@link #INSTANCE} number is beyond the instances of
+     * {@code prop}, e.g. after rolling back to a version with fewer instances.
+     *
+     * @return the number of deleted instances.
+     *
+     * @throws IOException if an instance fails to delete
+     * @throws InvalidSyntaxException if {@code servicePid} results in an invalid filter
+     */
+    final int deleteSurplus( ConfigurationAdmin configAdminService, String servicePid, Properties prop )
+        throws IOException, InvalidSyntaxException
+    {
+        int count = split( prop ).length;
+        String filter = "(&" + LdapFilter.equal( ConfigurationAdmin.SERVICE_FACTORYPID, servicePid ) + "(" + INSTANCE
+            + "=*))";
+        Configuration[] configs = configAdminService.listConfigurations( filter );
+        if( configs == null )
+        {
+            return 0;
+        }
+
+        int deleted = 0;
+        for( Configuration conf : configs )
+        {
+            Dictionary properties = conf.getProperties();
+            int instance;
             try
             {
-                String filter = "( &(service.factoryPid=" + servicePid + ") (service.pid=" + servicePid + "." + (i-1) + ") )";
-                LOGGER.debug( "filter = " + filter );
-                Configuration[] configs = configAdminService.listConfigurations( filter );
-                
-                Configuration conf;
-                
-                if( configs != null && configs.length > 0 )
-                {
-                    conf = configs[ 0 ];
-                    LOGGER.debug( "\tfound -> " + conf.getPid() );
-                }
-                else
-                {
-                    conf = configAdminService.createFactoryConfiguration( servicePid, null );
-                    LOGGER.debug( "\tcreate -> " + conf.getPid() );
-                }
-
-                conf.update( instanceProps );
-
-            } catch( Exception e )
+                instance = properties == null ? 0 : Integer.parseInt( String.valueOf( properties.get( INSTANCE ) ) );
+            }
+            catch( NumberFormatException e )
             {
-                LOGGER.error( e );
                 continue;
-            }                        
+            }
+            if( instance > count )
+            {
+                LOGGER.info( "Deleting instance [" + conf.getPid() + "] of factory [" + servicePid + "]." );
+                conf.delete();
+                deleted++;
+            }
         }
+        return deleted;
+    }
+
+    /**
+     * Lists the existing configurations of the {@code index}th instance of the factory {@code servicePid}, looked up by
+     * their {@link #INSTANCE} property.
+     *
+     * @return the matching configurations, {@code null} if there are none.
+     */
+    final Configuration[] findInstance( ConfigurationAdmin configAdminService, String servicePid, int index )
+        throws IOException, InvalidSyntaxException
+    {
+        String filter = "(&" + LdapFilter.equal( ConfigurationAdmin.SERVICE_FACTORYPID, servicePid )
+            + LdapFilter.equal( INSTANCE, String.valueOf( index + 1 ) ) + ")";
+        LOGGER.debug( "filter = " + filter );
+        return configAdminService.listConfigurations( filter );
     }
 
     private final Properties filterProps( String[] keys, Properties prop, int instance )
@@ -0,0 +1,101 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.util.Properties;
+
+import org.ops4j.lang.NullArgumentException;
+
+/**
+ * {@code PendingConfiguration} is a configuration that has been loaded from a file but not yet pushed to the
+ * configuration admin service. It holds the dictionary as read, with encrypted values still encrypted, and the
+ * dictionary to push, with these values decrypted. Only the former is fingerprinted and recorded, so that decrypted
+ * values never reach the registration journal, the index or the history.
+ */
+final class PendingConfiguration
+{
+
+    private final String m_servicePid;
+    private final String m_fileName;
+    private final boolean m_factory;
+    private final Properties m_sourceProperties;
+    private final Properties m_properties;
+    private final long m_fingerprint;
+    private final long m_sourceFingerprint;
+
+    PendingConfiguration( String servicePid, String fileName, boolean isFactory, Properties sourceProperties,
+        Properties properties, long sourceFingerprint )
+    {
+        NullArgumentException.validateNotNull( servicePid, "servicePid" );
+        NullArgumentException.validateNotNull( sourceProperties, "sourceProperties" );
+        NullArgumentException.validateNotNull( properties, "properties" );
+
+        m_servicePid = servicePid;
+        m_fileName = fileName;
+        m_factory = isFactory;
+        m_sourceProperties = sourceProperties;
+        m_properties = properties;
+        m_fingerprint = ConfigurationIndex.fingerprint( sourceProperties );
+        m_sourceFingerprint = sourceFingerprint;
+    }
+
+    final String getServicePid()
+    {
+        return m_servicePid;
+    }
+
+    final String getFileName()
+    {
+        return m_fileName;
+    }
+
+    final boolean isFactory()
+    {
+        return m_factory;
+    }
+
+    /**
+     * @return the dictionary as read, with encrypted values still encrypted.
+     */
+    final Properties getSourceProperties()
+    {
+        return m_sourceProperties;
+    }
+
+    /**
+     * @return the dictionary to push, with encrypted values decrypted.
+     */
+    final Properties getProperties()
+    {
+        return m_properties;
+    }
+
+    /**
+     * @return the fingerprint of the dictionary as read.
+     */
+    final long getFingerprint()
+    {
+        return m_fingerprint;
+    }
+
+    /**
+     * @return the fingerprint of the file the dictionary was loaded from.
+     */
+    final long getSourceFingerprint()
+    {
+        return m_sourceFingerprint;
+    }
+}
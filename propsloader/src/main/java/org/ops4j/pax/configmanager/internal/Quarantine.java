@@ -0,0 +1,214 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ops4j.lang.NullArgumentException;
+
+/**
+ * {@code Quarantine} keeps track of configuration entries that failed to load, so that a bad file is not parsed again
+ * on every pass.
+ * <p>
+ * A quarantined entry is parsed again as soon as its fingerprint changes. While it is unchanged it is only retried
+ * after a back off, starting at {@value #INITIAL_BACKOFF} ms and doubling with every failure up to
+ * {@value #MAX_BACKOFF} ms, in case the failure was caused by something other than the file contents.
+ */
+final class Quarantine
+{
+
+    private static final Log LOGGER = LogFactory.getLog( Quarantine.class );
+
+    static final long INITIAL_BACKOFF = 60000L;
+    static final long MAX_BACKOFF = 3600000L;
+
+    private final Map<String, Failure> m_failures;
+
+    Quarantine()
+    {
+        m_failures = new TreeMap<String, Failure>();
+    }
+
+    /**
+     * Returns {@code true} if the entry with the specified {@code path} failed to load with the same
+     * {@code fingerprint} and is not due for a retry yet.
+     *
+     * @param path        The path of the entry. This argument must not be {@code null}.
+     * @param fingerprint The fingerprint of the entry contents.
+     *
+     * @return A {@code boolean} indicator whether the entry must be skipped.
+     */
+    final boolean isQuarantined( String path, long fingerprint )
+    {
+        NullArgumentException.validateNotNull( path, "path" );
+
+        synchronized( m_failures )
+        {
+            Failure failure = m_failures.get( path );
+            return failure != null && failure.m_fingerprint == fingerprint
+                && System.currentTimeMillis() < failure.m_retryAt;
+        }
+    }
+
+    /**
+     * Records that the entry with the specified {@code path} failed to load.
+     *
+     * @param path        The path of the entry. This argument must not be {@code null}.
+     * @param fingerprint The fingerprint of the entry contents.
+     * @param reason      Description of the failure.
+     */
+    final void failed( String path, long fingerprint, String reason )
+    {
+        NullArgumentException.validateNotNull( path, "path" );
+
+        long now = System.currentTimeMillis();
+        Failure failure;
+        synchronized( m_failures )
+        {
+            failure = m_failures.get( path );
+            if( failure == null || failure.m_fingerprint != fingerprint )
+            {
+                failure = new Failure( path, fingerprint );
+                m_failures.put( path, failure );
+            }
+            else
+            {
+                failure.m_backoff = Math.min( MAX_BACKOFF, failure.m_backoff * 2 );
+            }
+            failure.m_reason = reason;
+            failure.m_attempts++;
+            failure.m_lastFailed = now;
+            failure.m_retryAt = now + failure.m_backoff;
+        }
+
+        LOGGER.warn( "Failed to load configuration [" + path + "]: " + reason + ". Not retrying for ["
+            + failure.m_backoff / 1000 + "] seconds unless it changes." );
+    }
+
+    /**
+     * Releases the entry with the specified {@code path} from quarantine once it loaded successfully.
+     *
+     * @param path The path of the entry. This argument must not be {@code null}.
+     */
+    final void released( String path )
+    {
+        NullArgumentException.validateNotNull( path, "path" );
+
+        Failure failure;
+        synchronized( m_failures )
+        {
+            failure = m_failures.remove( path );
+        }
+        if( failure != null )
+        {
+            LOGGER.info( "Configuration [" + path + "] loaded again after [" + failure.m_attempts + "] failures." );
+        }
+    }
+
+    /**
+     * @return copies of the recorded failures, ordered by path.
+     */
+    final List<Failure> failures()
+    {
+        List<Failure> result = new ArrayList<Failure>();
+        synchronized( m_failures )
+        {
+            for( Failure failure : m_failures.values() )
+            {
+                result.add( failure.copy() );
+            }
+        }
+        return result;
+    }
+
+    final void clear()
+    {
+        synchronized( m_failures )
+        {
+            m_failures.clear();
+        }
+    }
+
+    /**
+     * A configuration entry that failed to load.
+     */
+    static final class Failure
+    {
+
+        private final String m_path;
+        private final long m_fingerprint;
+        private String m_reason;
+        private int m_attempts;
+        private long m_backoff = INITIAL_BACKOFF;
+        private long m_lastFailed;
+        private long m_retryAt;
+
+        private Failure( String path, long fingerprint )
+        {
+            m_path = path;
+            m_fingerprint = fingerprint;
+        }
+
+        private Failure copy()
+        {
+            Failure copy = new Failure( m_path, m_fingerprint );
+            copy.m_reason = m_reason;
+            copy.m_attempts = m_attempts;
+            copy.m_backoff = m_backoff;
+            copy.m_lastFailed = m_lastFailed;
+            copy.m_retryAt = m_retryAt;
+            return copy;
+        }
+
+        final String getPath()
+        {
+            return m_path;
+        }
+
+        final long getFingerprint()
+        {
+            return m_fingerprint;
+        }
+
+        final String getReason()
+        {
+            return m_reason;
+        }
+
+        /**
+         * @return the number of consecutive failures with the current fingerprint.
+         */
+        final int getAttempts()
+        {
+            return m_attempts;
+        }
+
+        final long getLastFailed()
+        {
+            return m_lastFailed;
+        }
+
+        final long getRetryAt()
+        {
+            return m_retryAt;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ops4j.lang.NullArgumentException;
+
+/**
+ * {@code RegistrationJournal} is an append-only log of the configurations pushed to the configuration admin service,
+ * kept in the bundle data area so that it survives a restart of the framework.
+ * <p>
+ * A push is recorded as a {@code B} (begin) line before the update and a {@code C} (commit) line once it returned,
+ * both with the service pid and the fingerprint of the pushed dictionary. An {@code A} (abort) line marks a push that
+ * was rolled back. After a crash, service pids with a begin but no commit or abort are unfinished and must be pushed
+ * again; for all others the journal tells which dictionary the configuration admin service holds.
+ * <p>
+ * A torn last line is ignored. The journal is compacted to one commit line per service pid when it is opened and
+ * whenever it grows past {@value #COMPACT_THRESHOLD} lines more than that.
+ */
+final class RegistrationJournal
+{
+
+    private static final Log LOGGER = LogFactory.getLog( RegistrationJournal.class );
+
+    private static final char BEGIN = 'B';
+    private static final char COMMIT = 'C';
+    private static final char ABORT = 'A';
+    private static final String ENCODING = "UTF-8";
+    private static final int COMPACT_THRESHOLD = 4096;
+
+    private final File m_file;
+    private final Map<String, Long> m_committed;
+    private final Set<String> m_unfinished;
+    private FileOutputStream m_stream;
+    private Writer m_writer;
+    private int m_lines;
+
+    /**
+     * Opens the journal stored in the specified {@code file}, creating it if it does not exist yet.
+     *
+     * @param file The journal file. This argument must not be {@code null}.
+     *
+     * @throws IOException Thrown if the journal can not be read or written.
+     */
+    RegistrationJournal( File file )
+        throws IOException
+    {
+        NullArgumentException.validateNotNull( file, "file" );
+
+        m_file = file;
+        m_committed = new HashMap<String, Long>();
+        m_unfinished = new HashSet<String>();
+
+        if( file.exists() )
+        {
+            replay();
+        }
+        compact();
+
+        if( !m_unfinished.isEmpty() )
+        {
+            LOGGER.warn( "Registration journal has [" + m_unfinished.size() + "] unfinished configurations "
+                + m_unfinished + ", they are pushed again." );
+        }
+    }
+
+    /**
+     * @return {@code true} if a push of the specified {@code servicePid} began but did not finish.
+     */
+    final synchronized boolean isUnfinished( String servicePid )
+    {
+        return m_unfinished.contains( servicePid );
+    }
+
+    /**
+     * @return {@code true} if a push of any service pid began but did not finish.
+     */
+    final synchronized boolean hasUnfinished()
+    {
+        return !m_unfinished.isEmpty();
+    }
+
+    /**
+     * @return a copy of the fingerprints of the last completed push of every service pid, by service pid.
+     */
+    final synchronized Map<String, Long> getCommitted()
+    {
+        return new HashMap<String, Long>( m_committed );
+    }
+
+    /**
+     * @return {@code true} if the last completed push of the specified {@code servicePid} had the specified
+     *         {@code fingerprint} and no push is unfinished.
+     */
+    final synchronized boolean isCommitted( String servicePid, long fingerprint )
+    {
+        Long committed = m_committed.get( servicePid );
+        return committed != null && committed.longValue() == fingerprint && !m_unfinished.contains( servicePid );
+    }
+
+    /**
+     * Records that a push of the specified {@code servicePid} begins. The record is flushed before returning.
+     */
+    final synchronized void begin( String servicePid, long fingerprint )
+        throws IOException
+    {
+        append( BEGIN, servicePid, fingerprint );
+        m_unfinished.add( servicePid );
+    }
+
+    /**
+     * Records that the push of the specified {@code servicePid} completed.
+     */
+    final synchronized void commit( String servicePid, long fingerprint )
+        throws IOException
+    {
+        append( COMMIT, servicePid, fingerprint );
+        m_unfinished.remove( servicePid );
+        m_committed.put( servicePid, fingerprint );
+    }
+
+    /**
+     * Records that the push of the specified {@code servicePid} was rolled back, so that the last committed
+     * fingerprint applies again.
+     */
+    final synchronized void abort( String servicePid )
+        throws IOException
+    {
+        append( ABORT, servicePid, 0 );
+        m_unfinished.remove( servicePid );
+    }
+
+    /**
+     * Forces the journal to disk. Called at the end of a pass rather than for every record.
+     */
+    final synchronized void sync()
+        throws IOException
+    {
+        if( m_writer != null )
+        {
+            m_writer.flush();
+            m_stream.getFD().sync();
+        }
+    }
+
+    final synchronized void close()
+    {
+        if( m_writer != null )
+        {
+            try
+            {
+                m_writer.close();
+            }
+            catch( IOException e )
+            {
+                LOGGER.warn( "Failed to close registration journal [" + m_file + "].", e );
+            }
+            m_writer = null;
+            m_stream = null;
+        }
+    }
+
+    private void append( char type, String servicePid, long fingerprint )
+        throws IOException
+    {
+        if( m_writer == null )
+        {
+            throw new IOException( "Registration journal [" + m_file + "] is closed." );
+        }
+
+        m_writer.write( type + "\t" + Long.toHexString( fingerprint ) + "\t" + servicePid + "\n" );
+        m_writer.flush();
+
+        if( ++m_lines > m_committed.size() + COMPACT_THRESHOLD )
+        {
+            compact();
+        }
+    }
+
+    private void replay()
+        throws IOException
+    {
+        BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( m_file ), ENCODING ) );
+        try
+        {
+            String line;
+            while( ( line = reader.readLine() ) != null )
+            {
+                int first = line.indexOf( '\t' );
+                int second = line.indexOf( '\t', first + 1 );
+                if( first != 1 || second < 0 || second == line.length() - 1 )
+                {
+                    continue;
+                }
+
+                long fingerprint;
+                try
+                {
+                    fingerprint = Long.parseLong( line.substring( first + 1, second ), 16 );
+                }
+                catch( NumberFormatException e )
+                {
+                    continue;
+                }
+
+                String servicePid = line.substring( second + 1 );
+                switch( line.charAt( 0 ) )
+                {
+                    case BEGIN:
+                        m_unfinished.add( servicePid );
+                        break;
+                    case COMMIT:
+                        m_unfinished.remove( servicePid );
+                        m_committed.put( servicePid, fingerprint );
+                        break;
+                    case ABORT:
+                        m_unfinished.remove( servicePid );
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Rewrites the journal with the current state, and reopens it for appending.
+     */
+    private void compact()
+        throws IOException
+    {
+        close();
+
+        File temp = new File( m_file.getParentFile(), m_file.getName() + ".tmp" );
+        FileOutputStream stream = new FileOutputStream( temp );
+        Writer writer = new OutputStreamWriter( stream, ENCODING );
+        try
+        {
+            for( Map.Entry<String, Long> entry : m_committed.entrySet() )
+            {
+                writer.write( COMMIT + "\t" + Long.toHexString( entry.getValue() ) + "\t" + entry.getKey() + "\n" );
+            }
+            // Unfinished pushes stay unfinished until they are pushed again
+            for( String servicePid : m_unfinished )
+            {
+                writer.write( BEGIN + "\t0\t" + servicePid + "\n" );
+            }
+            writer.flush();
+            stream.getFD().sync();
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        if( !temp.renameTo( m_file ) )
+        {
+            // Windows does not replace existing files on rename
+            if( !m_file.delete() || !temp.renameTo( m_file ) )
+            {
+                throw new IOException( "Failed to replace registration journal [" + m_file + "]." );
+            }
+        }
+
+        m_lines = m_committed.size() + m_unfinished.size();
+        m_stream = new FileOutputStream( m_file, true );
+        m_writer = new OutputStreamWriter( m_stream, ENCODING );
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ops4j.lang.NullArgumentException;
+
+/**
+ * {@code SecretCodec} decrypts encrypted configuration values of the form {@code ENC(<base64>)} with an AES key read
+ * from a local {@code JCEKS} keystore. The base64 text is the 16 byte initialization vector followed by the
+ * {@code AES/CBC/PKCS5Padding} cipher text.
+ * <p>
+ * Decrypted values are only held in memory. They are cached by cipher text, so that re-scans and factory files that
+ * repeat a secret do not set up a cipher for every value. The keystore is only opened when the first encrypted value
+ * is seen.
+ * <p>
+ * Values are encrypted with
+ * <pre>
+ * java -cp ... org.ops4j.pax.configmanager.internal.SecretCodec &lt;keystore&gt; &lt;alias&gt;
+ * </pre>
+ * which reads the keystore password and the value from the standard input.
+ */
+final class SecretCodec
+{
+
+    private static final Log LOGGER = LogFactory.getLog( SecretCodec.class );
+
+    static final String PREFIX = "ENC(";
+    static final String SUFFIX = ")";
+    static final String DEFAULT_ALIAS = "confman";
+
+    private static final String KEYSTORE_TYPE = "JCEKS";
+    private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+    private static final int IV_LENGTH = 16;
+    private static final int MAX_CACHED = 1024;
+
+    private static final char[] BASE64 =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private final String m_keystore;
+    private final String m_password;
+    private final String m_alias;
+    private final Map<String, String> m_cache;
+    private Key m_key;
+
+    /**
+     * @param keystore Path of the keystore file, {@code null} if no keystore is configured.
+     * @param password Password of the keystore and of the key.
+     * @param alias    Alias of the key, {@link #DEFAULT_ALIAS} if {@code null}.
+     */
+    SecretCodec( String keystore, String password, String alias )
+    {
+        m_keystore = keystore;
+        m_password = password == null ? "" : password;
+        m_alias = alias == null ? DEFAULT_ALIAS : alias;
+        m_cache = new LinkedHashMap<String, String>( 16, 0.75f, true )
+        {
+
+            protected boolean removeEldestEntry( Map.Entry<String, String> eldest )
+            {
+                return size() > MAX_CACHED;
+            }
+        };
+    }
+
+    /**
+     * Creates a codec from the keystore properties of the specified {@code resolver}.
+     *
+     * @param resolver The property resolver. This argument must not be {@code null}.
+     *
+     * @return The codec.
+     */
+    static SecretCodec create( ConfigurationAdminFacade.PropertyResolver resolver )
+    {
+        return new SecretCodec( resolver.getProperty( ConfigurationAdminFacade.BUNDLES_CONFIGURATION_KEYSTORE ),
+            resolver.getProperty( ConfigurationAdminFacade.BUNDLES_CONFIGURATION_KEYSTORE_PASSWORD ),
+            resolver.getProperty( ConfigurationAdminFacade.BUNDLES_CONFIGURATION_KEYSTORE_ALIAS ) );
+    }
+
+    /**
+     * @return {@code true} if the specified {@code value} is encrypted.
+     */
+    static boolean isEncrypted( String value )
+    {
+        return value != null && value.startsWith( PREFIX ) && value.endsWith( SUFFIX );
+    }
+
+    /**
+     * Replaces the encrypted values of the specified {@code properties} by their plain text.
+     *
+     * @param properties The properties. This argument must not be {@code null}.
+     *
+     * @return The number of decrypted values.
+     *
+     * @throws IOException Thrown if a value can not be decrypted.
+     */
+    final int decrypt( Properties properties )
+        throws IOException
+    {
+        NullArgumentException.validateNotNull( properties, "properties" );
+
+        int decrypted = 0;
+        for( Enumeration e = properties.keys(); e.hasMoreElements(); )
+        {
+            Object key = e.nextElement();
+            Object value = properties.get( key );
+            if( value instanceof String && isEncrypted( (String) value ) )
+            {
+                properties.put( key, decrypt( (String) value ) );
+                decrypted++;
+            }
+        }
+        return decrypted;
+    }
+
+    /**
+     * Decrypts the specified {@code ENC(...)} value.
+     *
+     * @param value The encrypted value. This argument must not be {@code null}.
+     *
+     * @return The plain text.
+     *
+     * @throws IOException Thrown if no keystore is configured, or the value can not be decrypted.
+     */
+    final String decrypt( String value )
+        throws IOException
+    {
+        synchronized( m_cache )
+        {
+            String plain = m_cache.get( value );
+            if( plain != null )
+            {
+                return plain;
+            }
+        }
+
+        byte[] data = decodeBase64( value.substring( PREFIX.length(), value.length() - SUFFIX.length() ) );
+        if( data.length <= IV_LENGTH )
+        {
+            throw new IOException( "Encrypted value is too short." );
+        }
+
+        String plain;
+        try
+        {
+            Cipher cipher = Cipher.getInstance( TRANSFORMATION );
+            cipher.init( Cipher.DECRYPT_MODE, getKey(), new IvParameterSpec( data, 0, IV_LENGTH ) );
+            plain = new String( cipher.doFinal( data, IV_LENGTH, data.length - IV_LENGTH ), "UTF-8" );
+        }
+        catch( GeneralSecurityException e )
+        {
+            IOException failure = new IOException( "Failed to decrypt value: " + e.getMessage() );
+            failure.initCause( e );
+            throw failure;
+        }
+
+        synchronized( m_cache )
+        {
+            m_cache.put( value, plain );
+        }
+        return plain;
+    }
+
+    /**
+     * Encrypts the specified {@code value} into the {@code ENC(...)} form.
+     *
+     * @param value The plain text. This argument must not be {@code null}.
+     *
+     * @return The encrypted value.
+     *
+     * @throws IOException Thrown if no keystore is configured, or the value can not be encrypted.
+     */
+    final String encrypt( String value )
+        throws IOException
+    {
+        NullArgumentException.validateNotNull( value, "value" );
+
+        try
+        {
+            byte[] iv = new byte[IV_LENGTH];
+            new SecureRandom().nextBytes( iv );
+
+            Cipher cipher = Cipher.getInstance( TRANSFORMATION );
+            cipher.init( Cipher.ENCRYPT_MODE, getKey(), new IvParameterSpec( iv ) );
+            byte[] encrypted = cipher.doFinal( value.getBytes( "UTF-8" ) );
+
+            byte[] data = new byte[IV_LENGTH + encrypted.length];
+            System.arraycopy( iv, 0, data, 0, IV_LENGTH );
+            System.arraycopy( encrypted, 0, data, IV_LENGTH, encrypted.length );
+            return PREFIX + encodeBase64( data ) + SUFFIX;
+        }
+        catch( GeneralSecurityException e )
+        {
+            IOException failure = new IOException( "Failed to encrypt value: " + e.getMessage() );
+            failure.initCause( e );
+            throw failure;
+        }
+    }
+
+    final void clear()
+    {
+        synchronized( m_cache )
+        {
+            m_cache.clear();
+        }
+    }
+
+    private synchronized Key getKey()
+        throws IOException, GeneralSecurityException
+    {
+        if( m_key != null )
+        {
+            return m_key;
+        }
+
+        if( m_keystore == null )
+        {
+            throw new IOException( "Encrypted value found, but no keystore is configured. Please set ["
+                + ConfigurationAdminFacade.BUNDLES_CONFIGURATION_KEYSTORE + "]." );
+        }
+
+        KeyStore keyStore = KeyStore.getInstance( KEYSTORE_TYPE );
+        InputStream in = new FileInputStream( new File( m_keystore ) );
+        try
+        {
+            keyStore.load( in, m_password.toCharArray() );
+        }
+        finally
+        {
+            in.close();
+        }
+
+        Key key = keyStore.getKey( m_alias, m_password.toCharArray() );
+        if( key == null )
+        {
+            throw new IOException( "Key [" + m_alias + "] not found in keystore [" + m_keystore + "]." );
+        }
+
+        LOGGER.info( "Loaded configuration key [" + m_alias + "] from keystore [" + m_keystore + "]." );
+        m_key = key;
+        return m_key;
+    }
+
+    private static String encodeBase64( byte[] data )
+    {
+        StringBuilder result = new StringBuilder( ( data.length + 2 ) / 3 * 4 );
+        for( int i = 0; i < data.length; i += 3 )
+        {
+            int b = ( data[ i ] & 0xFF ) << 16;
+            if( i + 1 < data.length )
+            {
+                b |= ( data[ i + 1 ] & 0xFF ) << 8;
+            }
+            if( i + 2 < data.length )
+            {
+                b |= data[ i + 2 ] & 0xFF;
+            }
+
+            result.append( BASE64[ ( b >> 18 ) & 0x3F ] );
+            result.append( BASE64[ ( b >> 12 ) & 0x3F ] );
+            result.append( i + 1 < data.length ? BASE64[ ( b >> 6 ) & 0x3F ] : '=' );
+            result.append( i + 2 < data.length ? BASE64[ b & 0x3F ] : '=' );
+        }
+        return result.toString();
+    }
+
+    private static byte[] decodeBase64( String text )
+        throws IOException
+    {
+        int length = text.length();
+        while( length > 0 && text.charAt( length - 1 ) == '=' )
+        {
+            length--;
+        }
+        if( length % 4 == 1 )
+        {
+            throw new IOException( "Invalid base64 length." );
+        }
+
+        byte[] result = new byte[length * 3 / 4];
+        int bits = 0;
+        int buffer = 0;
+        int index = 0;
+        for( int i = 0; i < length; i++ )
+        {
+            int value = decodeBase64( text.charAt( i ) );
+            buffer = ( buffer << 6 ) | value;
+            bits += 6;
+            if( bits >= 8 )
+            {
+                bits -= 8;
+                result[ index++ ] = (byte) ( buffer >> bits );
+            }
+        }
+        return result;
+    }
+
+    private static int decodeBase64( char c )
+        throws IOException
+    {
+        if( c >= 'A' && c <= 'Z' )
+        {
+            return c - 'A';
+        }
+        if( c >= 'a' && c <= 'z' )
+        {
+            return c - 'a' + 26;
+        }
+        if( c >= '0' && c <= '9' )
+        {
+            return c - '0' + 52;
+        }
+        if( c == '+' )
+        {
+            return 62;
+        }
+        if( c == '/' )
+        {
+            return 63;
+        }
+        throw new IOException( "Invalid base64 character '" + c + "'." );
+    }
+
+    /**
+     * Prints the encrypted form of a value. The keystore password and the value are read from the first two lines of
+     * the standard input, so that neither shows up in the process list or in the shell history.
+     *
+     * @param args keystore and alias.
+     */
+    public static void main( String[] args )
+        throws IOException
+    {
+        if( args.length != 2 )
+        {
+            System.err.println( "Usage: SecretCodec <keystore> <alias>" );
+            System.exit( 1 );
+        }
+
+        BufferedReader in = new BufferedReader( new InputStreamReader( System.in ) );
+        System.err.print( "Keystore password: " );
+        String password = in.readLine();
+        System.err.print( "Value: " );
+        String value = in.readLine();
+        if( password == null || value == null )
+        {
+            System.err.println( "Keystore password and value are required." );
+            System.exit( 1 );
+        }
+        System.out.println( new SecretCodec( args[ 0 ], password, args[ 1 ] ).encrypt( value ) );
+    }
+}
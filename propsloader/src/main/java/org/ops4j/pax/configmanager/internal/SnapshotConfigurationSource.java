@@ -0,0 +1,302 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ops4j.lang.NullArgumentException;
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * {@code SnapshotConfigurationSource} reads configuration from a single versioned snapshot file compiled by
+ * {@link ConfigurationSnapshotWriter}, so that nodes sharing a configuration store only open one file instead of
+ * listing and opening every configuration file.
+ * <p>
+ * A snapshot starts with an index of all entries, including the checksum of every entry, followed by the entry
+ * contents. Only the index is read up front; contents are read on demand, so entries that did not change since the
+ * previously applied snapshot are never read.
+ * <pre>
+ * int     magic
+ * int     format version
+ * long    snapshot version
+ * int     entry count
+ * entry count times:
+ *   boolean factory
+ *   UTF     name
+ *   long    last modified
+ *   long    checksum (CRC-32 of the contents)
+ *   int     length
+ * entry contents, in index order
+ * </pre>
+ */
+final class SnapshotConfigurationSource
+    implements ConfigurationSource
+{
+
+    private static final Log LOGGER = LogFactory.getLog( SnapshotConfigurationSource.class );
+
+    static final int MAGIC = 0x434D534E;
+    static final int FORMAT_VERSION = 1;
+    static final String FILE_NAME_PREFIX = "configuration-";
+    static final String FILE_NAME_SUFFIX = ".snapshot";
+
+    private final File m_snapshotFile;
+    private final RandomAccessFile m_file;
+    private final long m_version;
+    private final List<SnapshotEntry> m_entries;
+
+    /**
+     * @param snapshotFile The snapshot file. This argument must not be {@code null}.
+     *
+     * @throws IOException Thrown if the snapshot can not be opened or is corrupt.
+     */
+    SnapshotConfigurationSource( File snapshotFile )
+        throws IOException
+    {
+        NullArgumentException.validateNotNull( snapshotFile, "snapshotFile" );
+
+        m_snapshotFile = snapshotFile;
+        m_file = new RandomAccessFile( snapshotFile, "r" );
+        try
+        {
+            if( m_file.readInt() != MAGIC || m_file.readInt() != FORMAT_VERSION )
+            {
+                throw new IOException( "[" + snapshotFile + "] is not a configuration snapshot." );
+            }
+
+            m_version = m_file.readLong();
+            int count = m_file.readInt();
+            m_entries = new ArrayList<SnapshotEntry>( count );
+
+            long offset = 0;
+            for( int i = 0; i < count; i++ )
+            {
+                boolean isFactory = m_file.readBoolean();
+                String name = m_file.readUTF();
+                long lastModified = m_file.readLong();
+                long checksum = m_file.readLong();
+                int length = m_file.readInt();
+                m_entries.add( new SnapshotEntry( name, isFactory, length, lastModified, checksum, offset ) );
+                offset += length;
+            }
+
+            long dataStart = m_file.getFilePointer();
+            if( dataStart + offset != m_file.length() )
+            {
+                throw new IOException( "Configuration snapshot [" + snapshotFile + "] is truncated." );
+            }
+            for( SnapshotEntry entry : m_entries )
+            {
+                entry.m_offset += dataStart;
+            }
+        }
+        catch( IOException e )
+        {
+            m_file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns {@code true} if the specified {@code file} looks like a configuration snapshot.
+     *
+     * @param file The file. This argument must not be {@code null}.
+     *
+     * @return A {@code boolean} indicator whether the {@code file} is a snapshot.
+     */
+    static boolean isSnapshot( File file )
+    {
+        return file.isFile() && file.getName().endsWith( FILE_NAME_SUFFIX );
+    }
+
+    /**
+     * Returns the snapshot with the highest version in the specified {@code store} directory, or {@code null} if the
+     * directory does not contain snapshots.
+     *
+     * @param store The directory. This argument must not be {@code null}.
+     *
+     * @return The latest snapshot file.
+     */
+    static File findLatest( File store )
+    {
+        File[] snapshots = store.listFiles( new FileFilter()
+        {
+
+            public boolean accept( File file )
+            {
+                return isSnapshot( file ) && getVersion( file ) >= 0;
+            }
+        }
+        );
+
+        File latest = null;
+        if( snapshots != null )
+        {
+            for( File snapshot : snapshots )
+            {
+                if( latest == null || getVersion( snapshot ) > getVersion( latest ) )
+                {
+                    latest = snapshot;
+                }
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Returns the version encoded in the name of the specified snapshot {@code file}, or {@code -1} if the name does
+     * not follow the {@code configuration-<version>.snapshot} convention.
+     *
+     * @param file The file. This argument must not be {@code null}.
+     *
+     * @return The version.
+     */
+    static long getVersion( File file )
+    {
+        String name = file.getName();
+        if( !name.startsWith( FILE_NAME_PREFIX ) || !name.endsWith( FILE_NAME_SUFFIX ) )
+        {
+            return -1;
+        }
+
+        try
+        {
+            return Long.parseLong(
+                name.substring( FILE_NAME_PREFIX.length(), name.length() - FILE_NAME_SUFFIX.length() ) );
+        }
+        catch( NumberFormatException e )
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the version of this snapshot.
+     */
+    final long getVersion()
+    {
+        return m_version;
+    }
+
+    public final String getLocation()
+    {
+        return m_snapshotFile.getAbsolutePath() + " (version " + m_version + ")";
+    }
+
+    public final void visit( boolean isFactory, Visitor visitor )
+        throws IOException, InvalidSyntaxException
+    {
+        for( SnapshotEntry entry : m_entries )
+        {
+            if( entry.isFactory() == isFactory && !visitor.visit( entry ) )
+            {
+                return;
+            }
+        }
+    }
+
+    public final ConfigurationEntry getEntry( String path )
+    {
+        NullArgumentException.validateNotNull( path, "path" );
+
+        for( SnapshotEntry entry : m_entries )
+        {
+            if( entry.getPath().equals( path ) )
+            {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A snapshot is published as a whole, so it is always applied as a change set.
+     */
+    public final boolean isChangeSet()
+    {
+        return true;
+    }
+
+    public final void close()
+    {
+        try
+        {
+            m_file.close();
+        }
+        catch( IOException e )
+        {
+            LOGGER.warn( "Failed to close configuration snapshot [" + m_snapshotFile + "].", e );
+        }
+    }
+
+    /**
+     * A configuration file within the snapshot.
+     */
+    private final class SnapshotEntry extends ConfigurationEntry
+    {
+
+        private final long m_checksum;
+        private long m_offset;
+
+        private SnapshotEntry( String name, boolean isFactory, int length, long lastModified, long checksum,
+            long offset )
+        {
+            super( name, isFactory, length, lastModified );
+            m_checksum = checksum;
+            m_offset = offset;
+        }
+
+        @Override
+        final long getChecksum()
+        {
+            return m_checksum;
+        }
+
+        @Override
+        final ConfigurationSource getSource()
+        {
+            return SnapshotConfigurationSource.this;
+        }
+
+        @Override
+        final InputStream openStream()
+            throws IOException
+        {
+            byte[] contents = new byte[(int) getSize()];
+            synchronized( m_file )
+            {
+                m_file.seek( m_offset );
+                m_file.readFully( contents );
+            }
+            return new ByteArrayInputStream( contents );
+        }
+
+        @Override
+        public final String toString()
+        {
+            return m_snapshotFile.getName() + "!/" + getPath();
+        }
+    }
+}
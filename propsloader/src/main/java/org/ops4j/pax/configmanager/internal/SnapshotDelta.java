@@ -0,0 +1,215 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ops4j.lang.NullArgumentException;
+
+/**
+ * {@code SnapshotDelta} remembers the checksum of every snapshot entry the loader has processed, so that a newer
+ * snapshot is applied as a delta: entries whose checksum did not change are skipped, changed entries are pushed even
+ * though their service pid already exists.
+ * <p>
+ * Until the first full pass over a snapshot completed there is no baseline, and the loader falls back to pushing only
+ * service pids that do not exist yet. If the delta is backed by a file, the baseline is saved whenever a full pass
+ * completes and read again on restart, so that a snapshot published while the node was down is applied as a delta too.
+ * The file holds the version on the first line, followed by one {@code checksum<TAB>path} line per entry.
+ */
+final class SnapshotDelta
+{
+
+    private static final Log LOGGER = LogFactory.getLog( SnapshotDelta.class );
+
+    private static final String ENCODING = "UTF-8";
+
+    private final Map<String, Long> m_checksums;
+    private long m_version;
+    private File m_file;
+
+    SnapshotDelta()
+    {
+        m_checksums = new HashMap<String, Long>();
+        m_version = -1;
+    }
+
+    /**
+     * Backs this delta by the specified {@code file}, and reads the baseline saved in it, if any.
+     *
+     * @param file The file, {@code null} to keep the baseline in memory only.
+     *
+     * @throws IOException Thrown if the saved baseline can not be read.
+     */
+    final synchronized void setFile( File file )
+        throws IOException
+    {
+        m_file = file;
+        if( file == null || !file.exists() )
+        {
+            return;
+        }
+
+        Map<String, Long> checksums = new HashMap<String, Long>();
+        long version;
+        BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), ENCODING ) );
+        try
+        {
+            String line = reader.readLine();
+            if( line == null )
+            {
+                return;
+            }
+            version = Long.parseLong( line.trim() );
+            while( ( line = reader.readLine() ) != null )
+            {
+                int tab = line.indexOf( '\t' );
+                if( tab > 0 )
+                {
+                    checksums.put( line.substring( tab + 1 ), Long.parseLong( line.substring( 0, tab ), 16 ) );
+                }
+            }
+        }
+        catch( NumberFormatException e )
+        {
+            throw new IOException( "Snapshot baseline [" + file + "] is corrupt: " + e.getMessage() );
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        m_checksums.clear();
+        m_checksums.putAll( checksums );
+        m_version = version;
+        LOGGER.info( "Snapshot version [" + version + "] is the baseline of the next snapshot." );
+    }
+
+    /**
+     * Returns {@code true} if there is a baseline and the entry at {@code path} is new or its checksum differs from the
+     * one recorded.
+     *
+     * @param path     The entry path. This argument must not be {@code null}.
+     * @param checksum The checksum of the entry.
+     *
+     * @return A {@code boolean} indicator whether the entry changed since the baseline.
+     */
+    final synchronized boolean isChanged( String path, long checksum )
+    {
+        NullArgumentException.validateNotNull( path, "path" );
+
+        if( m_version < 0 )
+        {
+            return false;
+        }
+
+        Long recorded = m_checksums.get( path );
+        return recorded == null || recorded.longValue() != checksum;
+    }
+
+    /**
+     * Records the checksum of an entry that has been pushed, or skipped because its configuration already exists.
+     *
+     * @param path     The entry path. This argument must not be {@code null}.
+     * @param checksum The checksum of the entry.
+     */
+    final synchronized void record( String path, long checksum )
+    {
+        NullArgumentException.validateNotNull( path, "path" );
+
+        m_checksums.put( path, checksum );
+    }
+
+    /**
+     * Marks a full pass over the snapshot with the specified {@code version} as completed.
+     *
+     * @param version The snapshot version.
+     */
+    final synchronized void completed( long version )
+    {
+        m_version = version;
+        if( m_file != null )
+        {
+            try
+            {
+                save();
+            }
+            catch( IOException e )
+            {
+                LOGGER.warn( "Failed to save snapshot baseline [" + m_file + "].", e );
+            }
+        }
+    }
+
+    /**
+     * @return the version of the last snapshot applied in full, {@code -1} if none.
+     */
+    final synchronized long getVersion()
+    {
+        return m_version;
+    }
+
+    final synchronized void clear()
+    {
+        m_checksums.clear();
+        m_version = -1;
+        m_file = null;
+    }
+
+    /**
+     * Writes the baseline to a temporary file that then replaces {@link #m_file}.
+     */
+    private void save()
+        throws IOException
+    {
+        File temp = new File( m_file.getParentFile(), m_file.getName() + ".tmp" );
+        FileOutputStream stream = new FileOutputStream( temp );
+        Writer writer = new OutputStreamWriter( stream, ENCODING );
+        try
+        {
+            writer.write( m_version + "\n" );
+            for( Map.Entry<String, Long> entry : m_checksums.entrySet() )
+            {
+                writer.write( Long.toHexString( entry.getValue() ) + "\t" + entry.getKey() + "\n" );
+            }
+            writer.flush();
+            stream.getFD().sync();
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        if( !temp.renameTo( m_file ) )
+        {
+            // Windows does not replace existing files on rename
+            if( !m_file.delete() || !temp.renameTo( m_file ) )
+            {
+                throw new IOException( "Failed to replace snapshot baseline [" + m_file + "]." );
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * {@code UpdateThrottle} paces {@code Configuration.update} calls pushed to the configuration admin service.
+ * <p>
+ * Updates are admitted by a token bucket refilled at {@code rate} tokens per second and holding at most {@code burst}
+ * tokens, so a full reload of a large configuration tree is spread out instead of flooding the configuration admin
+ * event thread. Independently, at most {@code maxInFlight} updates may be executing at the same time. Loads run on the
+ * single loader thread, so the in-flight limit only matters for concurrent callers of
+ * {@link org.ops4j.pax.configmanager.IConfigurationUpdater}.
+ * <p>
+ * A {@code rate} of {@code 0} or less disables pacing; a {@code maxInFlight} of {@code 0} or less disables the
+ * in-flight limit.
+ */
+final class UpdateThrottle
+{
+
+    private static final Log LOGGER = LogFactory.getLog( UpdateThrottle.class );
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final double m_rate;
+    private final double m_burst;
+    private final Semaphore m_inFlight;
+
+    private double m_tokens;
+    private long m_lastRefill;
+
+    /**
+     * Construct a new {@code UpdateThrottle}.
+     *
+     * @param rate        Number of updates admitted per second. {@code 0} or less means unlimited.
+     * @param burst       Maximum number of updates that may be admitted back to back after an idle period.
+     * @param maxInFlight Maximum number of concurrently executing updates. {@code 0} or less means unlimited.
+     */
+    UpdateThrottle( double rate, int burst, int maxInFlight )
+    {
+        m_rate = rate;
+        m_burst = Math.max( 1, burst );
+        m_tokens = m_burst;
+        m_lastRefill = System.nanoTime();
+
+        if( maxInFlight > 0 )
+        {
+            m_inFlight = new Semaphore( maxInFlight, true );
+        }
+        else
+        {
+            m_inFlight = null;
+        }
+    }
+
+    /**
+     * Returns an {@code UpdateThrottle} that never delays updates.
+     *
+     * @return An unlimited throttle.
+     */
+    static UpdateThrottle unlimited()
+    {
+        return new UpdateThrottle( 0, 1, 0 );
+    }
+
+    /**
+     * Blocks until an update is admitted. Every successful call must be paired with {@link #release()}.
+     *
+     * @throws InterruptedIOException Thrown if the calling thread is interrupted while waiting.
+     */
+    final void acquire()
+        throws InterruptedIOException
+    {
+        try
+        {
+            // Wait for the token first, so that a caller held back by the rate does not occupy an in-flight slot
+            awaitToken();
+            if( m_inFlight != null )
+            {
+                m_inFlight.acquire();
+            }
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while waiting to push configuration update." );
+        }
+    }
+
+    /**
+     * Marks an update admitted by {@link #acquire()} as completed.
+     */
+    final void release()
+    {
+        if( m_inFlight != null )
+        {
+            m_inFlight.release();
+        }
+    }
+
+    private void awaitToken()
+        throws InterruptedException
+    {
+        if( m_rate <= 0 )
+        {
+            return;
+        }
+
+        long waitNanos;
+        synchronized( this )
+        {
+            long now = System.nanoTime();
+            m_tokens = Math.min( m_burst, m_tokens + ( now - m_lastRefill ) * m_rate / NANOS_PER_SECOND );
+            m_lastRefill = now;
+
+            // Reserve the token now, even if it is not there yet, so that waiting callers queue up fairly
+            m_tokens -= 1;
+            if( m_tokens >= 0 )
+            {
+                return;
+            }
+            waitNanos = (long) ( -m_tokens * NANOS_PER_SECOND / m_rate );
+        }
+
+        if( LOGGER.isDebugEnabled() )
+        {
+            LOGGER.debug( "Throttling configuration update for [" + waitNanos / 1000000 + "] ms." );
+        }
+
+        long millis = waitNanos / 1000000;
+        int nanos = (int) ( waitNanos % 1000000 );
+        Thread.sleep( millis, nanos );
+    }
+
+    /**
+     * Creates a throttle from the specified {@code resolver}. Missing or invalid values fall back to unlimited.
+     *
+     * @param resolver The property resolver. This argument must not be {@code null}.
+     *
+     * @return The configured throttle.
+     */
+    static UpdateThrottle create( ConfigurationAdminFacade.PropertyResolver resolver )
+    {
+        double rate = parseDouble( resolver, ConfigurationAdminFacade.BUNDLES_CONFIGURATION_UPDATE_RATE, 0 );
+        int burst = (int) parseDouble( resolver, ConfigurationAdminFacade.BUNDLES_CONFIGURATION_UPDATE_BURST,
+            Math.max( 1, rate ) );
+        int maxInFlight = (int) parseDouble( resolver,
+            ConfigurationAdminFacade.BUNDLES_CONFIGURATION_UPDATE_MAX_IN_FLIGHT, 0 );
+
+        if( rate > 0 || maxInFlight > 0 )
+        {
+            LOGGER.info( "Throttling configuration updates to [" + rate + "] per second, burst [" + burst
+                + "], max in flight [" + maxInFlight + "]." );
+        }
+        return new UpdateThrottle( rate, burst, maxInFlight );
+    }
+
+    private static double parseDouble( ConfigurationAdminFacade.PropertyResolver resolver, String key,
+        double defaultValue )
+    {
+        String value = resolver.getProperty( key );
+        if( value == null || value.trim().length() == 0 )
+        {
+            return defaultValue;
+        }
+
+        try
+        {
+            return Double.parseDouble( value.trim() );
+        }
+        catch( NumberFormatException e )
+        {
+            LOGGER.warn( "Invalid value [" + value + "] for property [" + key + "]. Using [" + defaultValue + "]." );
+            return defaultValue;
+        }
+    }
+}
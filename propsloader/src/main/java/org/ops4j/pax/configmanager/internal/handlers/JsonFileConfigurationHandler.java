@@ -0,0 +1,397 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal.handlers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ops4j.lang.NullArgumentException;
+import org.ops4j.pax.configmanager.IConfigurationFileHandler;
+import org.ops4j.pax.configmanager.IConfigurationResource;
+import org.ops4j.pax.configmanager.IConfigurationResourceHandler;
+
+/**
+ * {@code JsonFileConfigurationHandler} handles configuration files with extension of {@code .json}.
+ * <p>
+ * A service configuration is an object. Nested objects are flattened to dotted keys and arrays of values are joined
+ * with commas:
+ * <pre>
+ * { "url" : "jdbc:h2:mem:test", "pool" : { "min" : 1, "max" : 8 }, "roles" : [ "admin", "user" ] }
+ * </pre>
+ * A factory configuration is an array of instance objects, or an object whose {@code instances} member is such an
+ * array, e.g. to set the {@code service.pid}:
+ * <pre>
+ * { "service.pid" : "org.ops4j.pax.counterservice",
+ *   "instances" : [ { "userid" : "simone", "password" : "beauvoir" }, { "userid" : "edith" } ] }
+ * </pre>
+ * Instances are written to the {@code instances}, {@code keys} and {@code key.N} properties the factory processor
+ * expects as they are parsed. A top level {@code keys} member, or an {@code instances} member that is not an array,
+ * would overwrite these properties and is rejected.
+ * <p>
+ * As commas separate the joined values, strings in arrays and the member names of factory instances must not contain
+ * commas; such files are rejected rather than loaded with different values or keys.
+ */
+public final class JsonFileConfigurationHandler
+    implements IConfigurationFileHandler, IConfigurationResourceHandler
+{
+
+    private static final String JSON_EXTENSION_FILE_NAME = ".json";
+    private static final String INSTANCES = "instances";
+    private static final String KEYS = "keys";
+
+    private static final Log LOGGER = LogFactory.getLog( JsonFileConfigurationHandler.class );
+
+    public JsonFileConfigurationHandler()
+    {
+    }
+
+    /**
+     * Returns the configuration name of the specified {@code fileName}. Returns {@code null} if the file name can not
+     * be handled by this handler.
+     *
+     * @param fileName The file name. This argument must not be {@code null}.
+     *
+     * @return Returns the configuration name given the {@code fileName} argument.
+     */
+    public final String getServicePID( String fileName )
+    {
+        NullArgumentException.validateNotEmpty( fileName, "fileName" );
+
+        if( fileName.endsWith( JSON_EXTENSION_FILE_NAME ) )
+        {
+            return fileName.substring( 0, fileName.length() - JSON_EXTENSION_FILE_NAME.length() );
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the properties after loading the specified {@code file}. Returns {@code null} if the file can not be
+     * read or is not valid JSON.
+     *
+     * @param file The configuration file to be loaded. This argument must not be {@code null}.
+     *
+     * @return Returns the {@code Properties} of the specified {@code file}.
+     *
+     * @throws IllegalArgumentException thrown if the specified {@code file} argument is {@code null}.
+     */
+    public final Properties handle( File file )
+        throws IllegalArgumentException
+    {
+        NullArgumentException.validateNotNull( file, "file" );
+
+        try
+        {
+            FileInputStream fis = new FileInputStream( file );
+            try
+            {
+                return parse( fis );
+            }
+            finally
+            {
+                fis.close();
+            }
+        } catch( IOException e )
+        {
+            LOGGER.error( "Fail to handle file [" + file.getAbsolutePath() + "] configuration property.", e );
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the properties parsed from the specified {@code stream}.
+     *
+     * @param resource The resource being loaded. This argument must not be {@code null}.
+     * @param stream   The UTF-8 encoded contents of {@code resource}. This argument must not be {@code null}.
+     *
+     * @return Returns the {@code Properties} read from the {@code stream}.
+     *
+     * @throws IllegalArgumentException Thrown if either argument is {@code null}.
+     * @throws IOException              Thrown if the stream can not be read or is not valid JSON.
+     */
+    public final Properties handle( IConfigurationResource resource, InputStream stream )
+        throws IllegalArgumentException, IOException
+    {
+        NullArgumentException.validateNotNull( resource, "resource" );
+        NullArgumentException.validateNotNull( stream, "stream" );
+
+        return parse( stream );
+    }
+
+    /**
+     * Returns {@code true} if the specified {@code file} can be handled by this {@code IConfigurationFileHandler}.
+     *
+     * @param file The file to be handled. This argument must not be {@code null}.
+     *
+     * @return A {@code boolean} indicator whether this {@code IConfigurationFileHandler} able to handle {@code file}.
+     *
+     * @throws IllegalArgumentException Thrown if the specified {@code file} argument is {@code null}.
+     */
+    public final boolean canHandle( File file )
+        throws IllegalArgumentException
+    {
+        NullArgumentException.validateNotNull( file, "file" );
+
+        return file.getName().endsWith( JSON_EXTENSION_FILE_NAME );
+    }
+
+    /**
+     * Returns {@code true} if the specified {@code resource} can be handled by this handler.
+     *
+     * @param resource The resource to be handled. This argument must not be {@code null}.
+     *
+     * @return A {@code boolean} indicator whether this handler able to handle {@code resource}.
+     *
+     * @throws IllegalArgumentException Thrown if the specified {@code resource} argument is {@code null}.
+     */
+    public final boolean canHandle( IConfigurationResource resource )
+        throws IllegalArgumentException
+    {
+        NullArgumentException.validateNotNull( resource, "resource" );
+
+        return resource.getName().endsWith( JSON_EXTENSION_FILE_NAME );
+    }
+
+    private static Properties parse( InputStream stream )
+        throws IOException
+    {
+        JsonTokenizer tokens = new JsonTokenizer( new InputStreamReader( stream, "UTF-8" ) );
+        Properties prop = new Properties();
+
+        JsonTokenizer.Token token = tokens.next();
+        if( token == JsonTokenizer.Token.BEGIN_ARRAY )
+        {
+            readInstances( tokens, prop );
+        }
+        else if( token == JsonTokenizer.Token.BEGIN_OBJECT )
+        {
+            readConfiguration( tokens, prop );
+        }
+        else
+        {
+            throw tokens.error( "Expected an object or an array but found " + token );
+        }
+
+        tokens.expect( JsonTokenizer.Token.END );
+        return prop;
+    }
+
+    /**
+     * Reads the members of the top level object, whose {@code instances} member may hold factory instances. The
+     * {@code instances} and {@code keys} properties are written for those instances only, so an {@code instances}
+     * member that is not an array and a {@code keys} member are rejected.
+     */
+    private static void readConfiguration( JsonTokenizer tokens, Properties prop )
+        throws IOException
+    {
+        while( true )
+        {
+            JsonTokenizer.Token token = tokens.next();
+            if( token == JsonTokenizer.Token.END_OBJECT )
+            {
+                return;
+            }
+            if( token != JsonTokenizer.Token.STRING )
+            {
+                throw tokens.error( "Expected a member name but found " + token );
+            }
+
+            String name = tokens.getText();
+            if( INSTANCES.equals( name ) )
+            {
+                if( prop.containsKey( INSTANCES ) )
+                {
+                    throw tokens.error( "Duplicate member [" + INSTANCES + "]" );
+                }
+                if( tokens.next() != JsonTokenizer.Token.BEGIN_ARRAY )
+                {
+                    throw tokens.error( "Member [" + INSTANCES + "] must hold an array of instance objects" );
+                }
+                readInstances( tokens, prop );
+            }
+            else if( KEYS.equals( name ) )
+            {
+                throw tokens.error( "Member [" + KEYS + "] is reserved for factory configurations" );
+            }
+            else
+            {
+                readValue( tokens, name, "", prop, null );
+            }
+        }
+    }
+
+    /**
+     * Reads an array of instance objects, the opening bracket already consumed, into {@code key.N} properties.
+     */
+    private static void readInstances( JsonTokenizer tokens, Properties prop )
+        throws IOException
+    {
+        Set<String> keys = new LinkedHashSet<String>();
+        int instance = 0;
+        while( true )
+        {
+            JsonTokenizer.Token token = tokens.next();
+            if( token == JsonTokenizer.Token.END_ARRAY )
+            {
+                break;
+            }
+            if( token != JsonTokenizer.Token.BEGIN_OBJECT )
+            {
+                throw tokens.error( "Expected an instance object but found " + token );
+            }
+
+            instance++;
+            readObject( tokens, "", "." + instance, prop, keys );
+        }
+
+        StringBuilder keyList = new StringBuilder();
+        for( String key : keys )
+        {
+            if( keyList.length() > 0 )
+            {
+                keyList.append( ',' );
+            }
+            keyList.append( key );
+        }
+        prop.put( INSTANCES, String.valueOf( instance ) );
+        prop.put( KEYS, keyList.toString() );
+    }
+
+    /**
+     * Reads the members of an object, the opening brace already consumed.
+     *
+     * @param prefix Prefix of the keys of nested objects.
+     * @param suffix Suffix appended to every key, the instance number of factory instances.
+     * @param keys   Collects the keys without suffix, {@code null} if not needed.
+     */
+    private static void readObject( JsonTokenizer tokens, String prefix, String suffix, Properties prop,
+        Set<String> keys )
+        throws IOException
+    {
+        while( true )
+        {
+            JsonTokenizer.Token token = tokens.next();
+            if( token == JsonTokenizer.Token.END_OBJECT )
+            {
+                return;
+            }
+            if( token != JsonTokenizer.Token.STRING )
+            {
+                throw tokens.error( "Expected a member name but found " + token );
+            }
+            readValue( tokens, prefix + tokens.getText(), suffix, prop, keys );
+        }
+    }
+
+    private static void readValue( JsonTokenizer tokens, String key, String suffix, Properties prop,
+        Set<String> keys )
+        throws IOException
+    {
+        JsonTokenizer.Token token = tokens.next();
+        String value;
+        switch( token )
+        {
+            case BEGIN_OBJECT:
+                readObject( tokens, key + ".", suffix, prop, keys );
+                return;
+            case BEGIN_ARRAY:
+                value = readArray( tokens );
+                break;
+            case STRING:
+            case NUMBER:
+                value = tokens.getText();
+                break;
+            case TRUE:
+                value = "true";
+                break;
+            case FALSE:
+                value = "false";
+                break;
+            case NULL:
+                return;
+            default:
+                throw tokens.error( "Expected a value but found " + token );
+        }
+
+        if( keys != null )
+        {
+            if( key.indexOf( ',' ) >= 0 )
+            {
+                throw tokens.error( "Instance member name [" + key + "] must not contain ','" );
+            }
+            keys.add( key );
+        }
+        prop.put( key + suffix, value );
+    }
+
+    /**
+     * Reads an array of values, the opening bracket already consumed, and joins them with commas. Strings containing a
+     * comma are rejected, as they could not be told apart from two values.
+     */
+    private static String readArray( JsonTokenizer tokens )
+        throws IOException
+    {
+        StringBuilder value = new StringBuilder();
+        boolean first = true;
+        while( true )
+        {
+            JsonTokenizer.Token token = tokens.next();
+            if( token == JsonTokenizer.Token.END_ARRAY )
+            {
+                return value.toString();
+            }
+
+            if( !first )
+            {
+                value.append( ',' );
+            }
+            first = false;
+
+            switch( token )
+            {
+                case STRING:
+                    if( tokens.getText().indexOf( ',' ) >= 0 )
+                    {
+                        throw tokens.error( "Array value [" + tokens.getText() + "] must not contain ','" );
+                    }
+                    value.append( tokens.getText() );
+                    break;
+                case NUMBER:
+                    value.append( tokens.getText() );
+                    break;
+                case TRUE:
+                    value.append( "true" );
+                    break;
+                case FALSE:
+                    value.append( "false" );
+                    break;
+                case NULL:
+                    break;
+                default:
+                    throw tokens.error( "Expected a value in array but found " + token );
+            }
+        }
+    }
+}
@@ -0,0 +1,455 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.configmanager.internal.handlers;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.ops4j.lang.NullArgumentException;
+
+/**
+ * {@code JsonTokenizer} is a streaming pull tokenizer for JSON. It reads the input through a fixed size buffer and
+ * hands out one token at a time, so documents of any size are read without building a tree.
+ * <p>
+ * Colons and commas are validated and consumed by the tokenizer, so they are never returned as tokens: a member name
+ * must be followed by a colon, and values within an object or array must be separated by exactly one comma. Strings,
+ * numbers and literals are validated too: strings must not contain unescaped control characters, and numbers must
+ * follow the JSON grammar, so {@code 01}, {@code 1.} or {@code .5} are rejected.
+ */
+final class JsonTokenizer
+{
+
+    /**
+     * Token types returned by {@link JsonTokenizer#next()}.
+     */
+    static enum Token
+    {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, STRING, NUMBER, TRUE, FALSE, NULL, END
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader m_reader;
+    private final char[] m_buffer;
+    private final StringBuilder m_text;
+    private int m_position;
+    private int m_limit;
+    private int m_line;
+    private Token m_peeked;
+    private final StringBuilder m_containers;
+    private boolean m_afterName;
+    private boolean m_afterValue;
+
+    JsonTokenizer( Reader reader )
+    {
+        NullArgumentException.validateNotNull( reader, "reader" );
+
+        m_reader = reader;
+        m_buffer = new char[BUFFER_SIZE];
+        m_text = new StringBuilder();
+        m_containers = new StringBuilder();
+        m_line = 1;
+    }
+
+    /**
+     * Returns the next token without consuming it.
+     *
+     * @return The next token.
+     *
+     * @throws IOException Thrown if the input can not be read or is not valid JSON.
+     */
+    final Token peek()
+        throws IOException
+    {
+        if( m_peeked == null )
+        {
+            m_peeked = read();
+        }
+        return m_peeked;
+    }
+
+    /**
+     * Consumes and returns the next token. The text of {@link Token#STRING} and {@link Token#NUMBER} tokens is
+     * available from {@link #getText()} until the next token is read.
+     *
+     * @return The next token, {@link Token#END} at the end of the input.
+     *
+     * @throws IOException Thrown if the input can not be read or is not valid JSON.
+     */
+    final Token next()
+        throws IOException
+    {
+        Token token = peek();
+        m_peeked = null;
+        return token;
+    }
+
+    /**
+     * Consumes the next token and fails unless it is of the {@code expected} type.
+     *
+     * @param expected The expected token type.
+     *
+     * @throws IOException Thrown if the next token is of a different type.
+     */
+    final void expect( Token expected )
+        throws IOException
+    {
+        Token token = next();
+        if( token != expected )
+        {
+            throw error( "Expected " + expected + " but found " + token );
+        }
+    }
+
+    /**
+     * @return the text of the last {@link Token#STRING} or {@link Token#NUMBER} token.
+     */
+    final String getText()
+    {
+        return m_text.toString();
+    }
+
+    /**
+     * Creates an exception describing a syntax error at the current line.
+     *
+     * @param message The error message.
+     *
+     * @return The exception.
+     */
+    final IOException error( String message )
+    {
+        return new IOException( message + " at line " + m_line + "." );
+    }
+
+    private Token read()
+        throws IOException
+    {
+        int c = skipWhitespace();
+        boolean inObject = m_containers.length() > 0 && m_containers.charAt( m_containers.length() - 1 ) == '{';
+        boolean isName = inObject && !m_afterName;
+        if( m_afterName )
+        {
+            if( c != ':' )
+            {
+                throw error( "Expected ':' after member name" );
+            }
+            c = skipWhitespace();
+            if( c == '}' || c == ']' )
+            {
+                throw error( "Expected a value after ':'" );
+            }
+        }
+        else if( m_afterValue && m_containers.length() > 0 && c != '}' && c != ']' )
+        {
+            if( c != ',' )
+            {
+                throw error( "Expected ',' between values" );
+            }
+            c = skipWhitespace();
+            if( c == '}' || c == ']' )
+            {
+                throw error( "Unexpected ',' before '" + (char) c + "'" );
+            }
+        }
+
+        Token token = readToken( c );
+        switch( token )
+        {
+            case BEGIN_OBJECT:
+            case BEGIN_ARRAY:
+                m_containers.append( (char) c );
+                m_afterName = false;
+                m_afterValue = false;
+                break;
+            case END_OBJECT:
+            case END_ARRAY:
+                if( m_containers.length() == 0 || ( c == '}' ) != inObject )
+                {
+                    throw error( "Unexpected '" + (char) c + "'" );
+                }
+                m_containers.setLength( m_containers.length() - 1 );
+                m_afterName = false;
+                m_afterValue = true;
+                break;
+            case END:
+                break;
+            default:
+                m_afterName = isName && token == Token.STRING;
+                m_afterValue = !m_afterName;
+        }
+        return token;
+    }
+
+    private Token readToken( int c )
+        throws IOException
+    {
+        switch( c )
+        {
+            case -1:
+                return Token.END;
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '}':
+                return Token.END_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case ']':
+                return Token.END_ARRAY;
+            case '"':
+                readString();
+                return Token.STRING;
+            case 't':
+                readLiteral( "rue" );
+                return Token.TRUE;
+            case 'f':
+                readLiteral( "alse" );
+                return Token.FALSE;
+            case 'n':
+                readLiteral( "ull" );
+                return Token.NULL;
+            default:
+                if( c == '-' || ( c >= '0' && c <= '9' ) )
+                {
+                    readNumber( (char) c );
+                    return Token.NUMBER;
+                }
+                throw error( "Unexpected character '" + (char) c + "'" );
+        }
+    }
+
+    private int skipWhitespace()
+        throws IOException
+    {
+        while( true )
+        {
+            int c = nextChar();
+            if( c == '\n' )
+            {
+                m_line++;
+            }
+            else if( c != ' ' && c != '\t' && c != '\r' )
+            {
+                return c;
+            }
+        }
+    }
+
+    private void readString()
+        throws IOException
+    {
+        m_text.setLength( 0 );
+        while( true )
+        {
+            // Copy runs of plain characters straight from the buffer
+            int start = m_position;
+            while( m_position < m_limit )
+            {
+                char c = m_buffer[ m_position ];
+                if( c == '"' || c == '\\' || c < 0x20 )
+                {
+                    break;
+                }
+                m_position++;
+            }
+            m_text.append( m_buffer, start, m_position - start );
+
+            int c = nextChar();
+            if( c == '"' )
+            {
+                return;
+            }
+            else if( c == '\\' )
+            {
+                m_text.append( readEscape() );
+            }
+            else if( c == '\n' || c == -1 )
+            {
+                throw error( "Unterminated string" );
+            }
+            else if( c < 0x20 )
+            {
+                throw error( "Unescaped control character in string" );
+            }
+            else
+            {
+                // Buffer boundary, the character belongs to the string
+                m_text.append( (char) c );
+            }
+        }
+    }
+
+    private char readEscape()
+        throws IOException
+    {
+        int c = nextChar();
+        switch( c )
+        {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+                for( int i = 0; i < 4; i++ )
+                {
+                    int digit = Character.digit( nextChar(), 16 );
+                    if( digit < 0 )
+                    {
+                        throw error( "Invalid unicode escape" );
+                    }
+                    value = ( value << 4 ) | digit;
+                }
+                return (char) value;
+            default:
+                throw error( "Invalid escape sequence" );
+        }
+    }
+
+    private void readNumber( char first )
+        throws IOException
+    {
+        m_text.setLength( 0 );
+        m_text.append( first );
+        while( true )
+        {
+            if( m_position == m_limit && !fill() )
+            {
+                break;
+            }
+            char c = m_buffer[ m_position ];
+            if( ( c >= '0' && c <= '9' ) || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-' )
+            {
+                m_text.append( c );
+                m_position++;
+            }
+            else
+            {
+                break;
+            }
+        }
+
+        // The original text is kept as the value
+        if( !isNumber( m_text ) )
+        {
+            throw error( "Invalid number [" + m_text + "]" );
+        }
+    }
+
+    /**
+     * @return {@code true} if {@code text} follows the JSON number grammar
+     *         {@code -?(0|[1-9][0-9]*)(\.[0-9]+)?([eE][+-]?[0-9]+)?}, which is stricter than {@link Double#parseDouble}.
+     */
+    private static boolean isNumber( CharSequence text )
+    {
+        int length = text.length();
+        int i = 0;
+        if( i < length && text.charAt( i ) == '-' )
+        {
+            i++;
+        }
+        if( i < length && text.charAt( i ) == '0' )
+        {
+            i++;
+        }
+        else
+        {
+            int start = i;
+            i = skipDigits( text, i );
+            if( i == start )
+            {
+                return false;
+            }
+        }
+        if( i < length && text.charAt( i ) == '.' )
+        {
+            int start = ++i;
+            i = skipDigits( text, i );
+            if( i == start )
+            {
+                return false;
+            }
+        }
+        if( i < length && ( text.charAt( i ) == 'e' || text.charAt( i ) == 'E' ) )
+        {
+            i++;
+            if( i < length && ( text.charAt( i ) == '+' || text.charAt( i ) == '-' ) )
+            {
+                i++;
+            }
+            int start = i;
+            i = skipDigits( text, i );
+            if( i == start )
+            {
+                return false;
+            }
+        }
+        return i == length;
+    }
+
+    private static int skipDigits( CharSequence text, int i )
+    {
+        while( i < text.length() && text.charAt( i ) >= '0' && text.charAt( i ) <= '9' )
+        {
+            i++;
+        }
+        return i;
+    }
+
+    private void readLiteral( String rest )
+        throws IOException
+    {
+        for( int i = 0; i < rest.length(); i++ )
+        {
+            if( nextChar() != rest.charAt( i ) )
+            {
+                throw error( "Invalid literal" );
+            }
+        }
+    }
+
+    private int nextChar()
+        throws IOException
+    {
+        if( m_position == m_limit && !fill() )
+        {
+            return -1;
+        }
+        return m_buffer[ m_position++ ];
+    }
+
+    private boolean fill()
+        throws IOException
+    {
+        int read = m_reader.read( m_buffer, 0, m_buffer.length );
+        if( read <= 0 )
+        {
+            return false;
+        }
+        m_position = 0;
+        m_limit = read;
+        return true;
+    }
+}
@@ -18,11 +18,14 @@ package org.ops4j.pax.configmanager.internal.handlers;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Properties;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.ops4j.lang.NullArgumentException;
 import org.ops4j.pax.configmanager.IConfigurationFileHandler;
+import org.ops4j.pax.configmanager.IConfigurationResource;
+import org.ops4j.pax.configmanager.IConfigurationResourceHandler;
 
 /**
  * {@code PropertiesConfigurationFileHandler} handles configuration files with extension of {@code .properties}.
@@ -31,7 +34,7 @@ import org.ops4j.pax.configmanager.IConfigurationFileHandler;
  * @author Makas Tzavellas
  */
 public final class PropertiesFileConfigurationHandler
-    implements IConfigurationFileHandler
+    implements IConfigurationFileHandler, IConfigurationResourceHandler
 {
 
     private static final String PROPERTIES_EXTENSION_FILE_NAME = ".properties";
@@ -83,7 +86,14 @@ public final class PropertiesFileConfigurationHandler
         {
             Properties prop = new Properties();
             FileInputStream fis = new FileInputStream( file );
-            prop.load( fis );
+            try
+            {
+                prop.load( fis );
+            }
+            finally
+            {
+                fis.close();
+            }
             return prop;
         } catch( IOException e )
         {
@@ -94,6 +104,28 @@ public final class PropertiesFileConfigurationHandler
         return null;
     }
 
+    /**
+     * Returns the properties loaded from the specified {@code stream}.
+     *
+     * @param resource The resource being loaded. This argument must not be {@code null}.
+     * @param stream   The contents of {@code resource}. This argument must not be {@code null}.
+     *
+     * @return Returns the {@code Properties} read from the {@code stream}.
+     *
+     * @throws IllegalArgumentException Thrown if either argument is {@code null}.
+     * @throws IOException              Thrown if the stream can not be read.
+     */
+    public final Properties handle( IConfigurationResource resource, InputStream stream )
+        throws IllegalArgumentException, IOException
+    {
+        NullArgumentException.validateNotNull( resource, "resource" );
+        NullArgumentException.validateNotNull( stream, "stream" );
+
+        Properties prop = new Properties();
+        prop.load( stream );
+        return prop;
+    }
+
     /**
      * Returns {@code true} if the specified {@code file} can be handled by this {@code IConfigurationFileHandler}.
      *
@@ -112,4 +144,21 @@ public final class PropertiesFileConfigurationHandler
         String fileName = file.getName();
         return fileName.endsWith( PROPERTIES_EXTENSION_FILE_NAME );
     }
+
+    /**
+     * Returns {@code true} if the specified {@code resource} can be handled by this handler.
+     *
+     * @param resource The resource to be handled. This argument must not be {@code null}.
+     *
+     * @return A {@code boolean} indicator whether this handler able to handle {@code resource}.
+     *
+     * @throws IllegalArgumentException Thrown if the specified {@code resource} argument is {@code null}.
+     */
+    public final boolean canHandle( IConfigurationResource resource )
+        throws IllegalArgumentException
+    {
+        NullArgumentException.validateNotNull( resource, "resource" );
+
+        return resource.getName().endsWith( PROPERTIES_EXTENSION_FILE_NAME );
+    }
 }